@@ -0,0 +1,37 @@
+package android.util;
+
+/**
+ * Stands in for android.util.Log when the app's classes run on a plain JVM
+ * under the benchmarks; android.jar only has stubs that throw. Only what
+ * the benchmarked classes call is here, and all of it is dropped.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+        return 0;
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return 0;
+    }
+
+    public static int e(String tag, String msg) {
+        return 0;
+    }
+
+    public static int wtf(String tag, String msg) {
+        return 0;
+    }
+
+}
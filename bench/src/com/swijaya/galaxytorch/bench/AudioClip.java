@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch.bench;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A mono 16-bit audio clip for BeatDetector to listen to offline, read
+ * from a WAV file or synthesized, and the beats known to be in it.
+ */
+final class AudioClip {
+
+    final int sampleRate;
+    final short[] samples;
+    final long[] beats;     // sample indices of the reference beats; empty if unknown
+
+    private AudioClip(int sampleRate, short[] samples, long[] beats) {
+        this.sampleRate = sampleRate;
+        this.samples = samples;
+        this.beats = beats;
+    }
+
+    /**
+     * Read a 16-bit PCM WAV file, mixing its channels down to one. The
+     * reference beats, if any, are read from a file of the same name with
+     * ".beats" appended, which holds the time of one beat (in seconds) per line.
+     */
+    static AudioClip read(File wav) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(wav));
+        try {
+            if (in.readInt() != 0x52494646)     // "RIFF"
+                throw new IOException(wav + " is not a RIFF file");
+            in.readInt();
+            if (in.readInt() != 0x57415645)     // "WAVE"
+                throw new IOException(wav + " is not a WAV file");
+
+            int channels = 0;
+            int sampleRate = 0;
+            while (true) {
+                int id = in.readInt();
+                int size = Integer.reverseBytes(in.readInt());
+                if (id == 0x666d7420) {         // "fmt "
+                    int format = Short.reverseBytes(in.readShort());
+                    channels = Short.reverseBytes(in.readShort());
+                    sampleRate = Integer.reverseBytes(in.readInt());
+                    in.skipBytes(6);
+                    int bits = Short.reverseBytes(in.readShort());
+                    if (format != 1 || bits != 16)
+                        throw new IOException(wav + " is not 16-bit PCM");
+                    in.skipBytes(size - 16);
+                } else if (id == 0x64617461) {  // "data"
+                    if (channels == 0)
+                        throw new IOException(wav + " has data before its format");
+                    short[] samples = new short[size / 2 / channels];
+                    for (int i = 0; i < samples.length; i++) {
+                        int sum = 0;
+                        for (int c = 0; c < channels; c++)
+                            sum += Short.reverseBytes(in.readShort());
+                        samples[i] = (short) (sum / channels);
+                    }
+                    return new AudioClip(sampleRate, samples,
+                            readBeats(new File(wav.getPath() + ".beats"), sampleRate));
+                } else {
+                    in.skipBytes(size + (size & 1));
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException(wav + " has no data", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long[] readBeats(File file, int sampleRate) throws IOException {
+        if (!file.exists())
+            return new long[0];
+        List<Long> beats = new ArrayList<Long>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0)
+                    beats.add(Math.round(Double.parseDouble(line) * sampleRate));
+            }
+        } finally {
+            in.close();
+        }
+        long[] result = new long[beats.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = beats.get(i);
+        return result;
+    }
+
+    /**
+     * Synthesize a kick drum on every beat at the given tempo, with a
+     * hi-hat on the off-beats and a bed of noise, so that a detector must
+     * pick the beats out of other onsets.
+     */
+    static AudioClip clickTrack(int sampleRate, int bpm, int seconds, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[sampleRate * seconds];
+        long period = 60L * sampleRate / bpm;
+        int beatCount = (int) ((samples.length - 1) / period) + 1;
+        long[] beats = new long[beatCount];
+
+        float[] mix = new float[samples.length];
+        for (int i = 0; i < mix.length; i++)
+            mix[i] = 0.02f * (float) random.nextGaussian();
+        for (int b = 0; b < beatCount; b++) {
+            int start = (int) (b * period);
+            beats[b] = start;
+            // a kick: a decaying sine sweeping down from 150 to 50 Hz
+            double phase = 0;
+            for (int i = 0; i < sampleRate / 5 && start + i < mix.length; i++) {
+                double t = (double) i / sampleRate;
+                phase += 2 * Math.PI * (50 + 100 * Math.exp(-t * 30)) / sampleRate;
+                mix[start + i] += (float) (0.7 * Math.exp(-t * 15) * Math.sin(phase));
+            }
+            // a hi-hat: a burst of noise halfway to the next beat
+            int hat = start + (int) (period / 2);
+            for (int i = 0; i < sampleRate / 20 && hat + i < mix.length; i++) {
+                double t = (double) i / sampleRate;
+                mix[hat + i] += (float) (0.2 * Math.exp(-t * 80) * random.nextGaussian());
+            }
+        }
+        for (int i = 0; i < mix.length; i++)
+            samples[i] = (short) Math.max(-32768, Math.min(32767, Math.round(mix[i] * 32767)));
+        return new AudioClip(sampleRate, samples, beats);
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.swijaya.galaxytorch.BeatDetector;
+
+/**
+ * What BeatDetector costs per 10 ms frame of audio, played from a WAV file
+ * or a synthesized click track in a loop. At the end of the trial, the
+ * whole clip is run through a fresh detector once more, and the beats it
+ * finds are scored against the clip's reference beats:
+ *
+ *     ant bench -Dbench.args="BeatDetector -p wav=/path/to/song.wav"
+ *
+ * where song.wav.beats, if present, lists the true beats in seconds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BeatDetectorBenchmark {
+
+    private static final int TOLERANCE_MS = 50;
+
+    /** A 16-bit PCM WAV file; empty for a synthesized click track. */
+    @Param({ "" })
+    public String wav;
+
+    /** The tempo of the click track. */
+    @Param({ "120", "174" })
+    public int bpm;
+
+    private AudioClip mClip;
+    private BeatDetector mDetector;
+    private int mOffset;
+    private int mBeats;
+
+    @Setup
+    public void setUp() throws IOException {
+        mClip = wav.length() == 0
+                ? AudioClip.clickTrack(44100, bpm, 30, 1)
+                : AudioClip.read(new File(wav));
+        mDetector = new BeatDetector(mClip.sampleRate, new BeatDetector.Listener() {
+            @Override
+            public void onBeat(long sample, float strength) {
+                mBeats++;
+            }
+        });
+    }
+
+    @Benchmark
+    public int frame() {
+        int frameSize = mDetector.getFrameSize();
+        if (mOffset + frameSize > mClip.samples.length)
+            mOffset = 0;
+        mDetector.feed(mClip.samples, mOffset, frameSize);
+        mOffset += frameSize;
+        return mBeats;
+    }
+
+    @TearDown
+    public void tearDown() {
+        final long[] found = new long[mClip.samples.length / mDetector.getFrameSize() + 1];
+        final int[] count = new int[1];
+        BeatDetector detector = new BeatDetector(mClip.sampleRate, new BeatDetector.Listener() {
+            @Override
+            public void onBeat(long sample, float strength) {
+                found[count[0]++] = sample;
+            }
+        });
+        detector.feed(mClip.samples, 0, mClip.samples.length);
+        System.out.println(score(mClip, Arrays.copyOf(found, count[0])));
+    }
+
+    /**
+     * Match each reference beat with the first beat found within
+     * TOLERANCE_MS of it, and sum up how well the two agree.
+     */
+    static String score(AudioClip clip, long[] found) {
+        if (clip.beats.length == 0)
+            return "  " + found.length + " beats found; no reference beats to score against";
+
+        long tolerance = (long) clip.sampleRate * TOLERANCE_MS / 1000;
+        int matched = 0;
+        long delay = 0;
+        int next = 0;
+        for (long beat : clip.beats) {
+            while (next < found.length && found[next] < beat - tolerance)
+                next++;
+            if (next < found.length && found[next] <= beat + tolerance) {
+                matched++;
+                delay += found[next] - beat;
+                next++;
+            }
+        }
+        return String.format(Locale.US,
+                "  %d beats found, %d of %d reference beats matched: precision %.2f, recall %.2f, mean delay %.1f ms",
+                found.length, matched, clip.beats.length,
+                found.length == 0 ? 0 : (double) matched / found.length,
+                (double) matched / clip.beats.length,
+                matched == 0 ? 0 : delay * 1000.0 / matched / clip.sampleRate);
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch.bench;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.swijaya.galaxytorch.MorseEncoder;
+
+/**
+ * What MorseEncoder costs per timing (i.e. per strobe edge), encoding a
+ * long message as it would be sent, over and over. The gc profiler's
+ * gc.alloc.rate.norm should stay at 0: nothing is expanded up front or
+ * allocated per timing. At the end of the trial, "PARIS " is encoded once
+ * to check it comes to the standard 50 units.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MorseEncoderBenchmark {
+
+    private static final String SENTENCE = "The quick brown fox jumps over the lazy dog, 1234567890 times? ";
+
+    /** How many characters long the message is. */
+    @Param({ "1000", "1000000" })
+    public int length;
+
+    @Param({ "15" })
+    public int wpm;
+
+    private MorseEncoder mEncoder;
+
+    @Setup
+    public void setUp() {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length)
+            text.append(SENTENCE, 0, Math.min(SENTENCE.length(), length - text.length()));
+        mEncoder = new MorseEncoder(text, wpm);
+    }
+
+    @Benchmark
+    public int nextTiming() {
+        int timing = mEncoder.nextTiming();
+        if (timing == 0) {
+            mEncoder.rewind();
+            timing = mEncoder.nextTiming();
+        }
+        return timing;
+    }
+
+    @TearDown
+    public void tearDown() {
+        MorseEncoder paris = new MorseEncoder("PARIS ", wpm);
+        long duration = 0;
+        int timing;
+        while ((timing = paris.nextTiming()) != 0)
+            duration += timing;
+        System.out.println(String.format(Locale.US,
+                "  \"PARIS \" is %d units (%d expected), %d ms at %.1f WPM",
+                paris.getUnits(), MorseEncoder.UNITS_PER_WORD, duration, paris.getWpm()));
+    }
+
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.swijaya.galaxytorch.SystemTorch;
+import com.swijaya.galaxytorch.TorchCamera;
+
+/**
+ * A camera that costs what the real one does, as far as the torches can
+ * tell: like android.hardware.Camera, every getParameters() parses the
+ * whole flattened parameter string and every setParameters() serializes
+ * it again, and each call (setTorchMode() included, for SystemTorch)
+ * blocks for a configurable latency, standing in for the camera service.
+ */
+public class SimulatedCamera implements TorchCamera, SystemTorch.Manager {
+
+    private static final String KEY_FLASH_MODE = "flash-mode";
+    private static final String KEY_FLASH_MODE_VALUES = "flash-mode-values";
+
+    private final long mGetLatencyNanos;
+    private final long mSetLatencyNanos;
+    private String mFlattened;
+    private boolean mIsTorchOn;
+    private long mCalls;
+
+    /**
+     * @param parameters how many (other) parameters the camera has; real
+     *                   cameras have somewhere between 50 and 150
+     * @param getLatencyNanos how long each getParameters() blocks
+     * @param setLatencyNanos how long each setParameters() or setTorchMode() blocks
+     */
+    public SimulatedCamera(int parameters, long getLatencyNanos, long setLatencyNanos) {
+        mGetLatencyNanos = getLatencyNanos;
+        mSetLatencyNanos = setLatencyNanos;
+
+        SimulatedParameters params = new SimulatedParameters();
+        params.mValues.put(KEY_FLASH_MODE, FLASH_MODE_OFF);
+        params.mValues.put(KEY_FLASH_MODE_VALUES, "off,auto,on,red-eye,torch");
+        for (int i = 0; i < parameters; i++)
+            params.mValues.put("parameter-" + i, "value-" + i + ",1280x720,30000");
+        mFlattened = params.flatten();
+    }
+
+    public Parameters getParameters() {
+        block(mGetLatencyNanos);
+        mCalls++;
+        return SimulatedParameters.unflatten(mFlattened);
+    }
+
+    public void setParameters(Parameters params) {
+        block(mSetLatencyNanos);
+        mCalls++;
+        mFlattened = ((SimulatedParameters) params).flatten();
+        mIsTorchOn = FLASH_MODE_TORCH.equals(params.getFlashMode());
+    }
+
+    public String[] getTorchCameraIds() {
+        return new String[] { "0" };
+    }
+
+    public void setTorchMode(String cameraId, boolean enabled) {
+        block(mSetLatencyNanos);
+        mCalls++;
+        mIsTorchOn = enabled;
+    }
+
+    public int getMaxTorchStrength(String cameraId) {
+        return 1;
+    }
+
+    public void setTorchStrength(String cameraId, int level) {
+        block(mSetLatencyNanos);
+        mCalls++;
+        mIsTorchOn = true;
+    }
+
+    public boolean isTorchOn() {
+        return mIsTorchOn;
+    }
+
+    /**
+     * @return how many calls reached the (simulated) camera service
+     */
+    public long getCalls() {
+        return mCalls;
+    }
+
+    private static void block(long nanos) {
+        if (nanos <= 0)
+            return;
+        // spin rather than sleep: a binder call keeps the caller busy, and
+        // sleeping would add the scheduler's own latency on top
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // wait
+        }
+    }
+
+    private static class SimulatedParameters implements Parameters {
+
+        private final Map<String, String> mValues = new LinkedHashMap<String, String>();
+
+        static SimulatedParameters unflatten(String flattened) {
+            SimulatedParameters params = new SimulatedParameters();
+            for (String pair : flattened.split(";")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0)
+                    params.mValues.put(pair.substring(0, equals), pair.substring(equals + 1));
+            }
+            return params;
+        }
+
+        String flatten() {
+            StringBuilder flattened = new StringBuilder();
+            for (Map.Entry<String, String> entry : mValues.entrySet()) {
+                if (flattened.length() > 0)
+                    flattened.append(';');
+                flattened.append(entry.getKey()).append('=').append(entry.getValue());
+            }
+            return flattened.toString();
+        }
+
+        public String getFlashMode() {
+            return mValues.get(KEY_FLASH_MODE);
+        }
+
+        public void setFlashMode(String mode) {
+            mValues.put(KEY_FLASH_MODE, mode);
+        }
+
+        public List<String> getSupportedFlashModes() {
+            String values = mValues.get(KEY_FLASH_MODE_VALUES);
+            if (values == null)
+                return null;
+            return new ArrayList<String>(Arrays.asList(values.split(",")));
+        }
+
+    }
+
+}
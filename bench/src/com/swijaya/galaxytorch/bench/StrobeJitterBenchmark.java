@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch.bench;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.swijaya.galaxytorch.CameraDevice;
+import com.swijaya.galaxytorch.LightPattern;
+import com.swijaya.galaxytorch.StrobeEngine;
+import com.swijaya.galaxytorch.StrobeSequencer;
+import com.swijaya.galaxytorch.util.LatencyHistogram;
+
+/**
+ * How late strobe edges fire when StrobeSequencer drives a torch backend
+ * against a simulated camera, each edge waited for by parking until its
+ * deadline (as StrobeEngine's looper does). Every benchmark call plays one
+ * edge; the lateness of each is summed into the "lateMicros" counter and
+ * its distribution printed at the end of the trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StrobeJitterBenchmark {
+
+    @Param({ Torches.DEFAULT, Torches.CACHED, Torches.SYSTEM })
+    public String torch;
+
+    @Param({ "200000" })
+    public long latencyNanos;
+
+    /** On and off durations, in ms, as LightPattern.custom() takes them. */
+    @Param({ "2 3", "10 40" })
+    public String pattern;
+
+    /**
+     * Reported alongside the edge rate; lateMicros / edges is the mean.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Lateness {
+
+        public long edges;
+        public long lateMicros;
+
+    }
+
+    private final LatencyHistogram mLateness = new LatencyHistogram("edge lateness");
+    private SimulatedCamera mCamera;
+    private StrobeSequencer mSequencer;
+    private long mEpoch;
+
+    @Setup
+    public void setUp() {
+        mCamera = new SimulatedCamera(80, latencyNanos, latencyNanos);
+        final CameraDevice.Torch torchImpl = Torches.create(torch, mCamera);
+        mSequencer = new StrobeSequencer(new StrobeEngine.Light() {
+            @Override
+            public void setLight(boolean on) {
+                torchImpl.toggleTorch(mCamera, on);
+            }
+        });
+        mEpoch = System.nanoTime();
+        mSequencer.start(LightPattern.custom(pattern), nowMillis());
+    }
+
+    @Benchmark
+    public boolean edge(Lateness lateness) {
+        long deadlineNanos = mEpoch + mSequencer.getDeadline() * 1000000L;
+        long now;
+        while ((now = System.nanoTime()) < deadlineNanos)
+            LockSupport.parkNanos(deadlineNanos - now);
+
+        long lateMicros = (now - deadlineNanos) / 1000;
+        mLateness.record(lateMicros);
+        lateness.edges++;
+        lateness.lateMicros += lateMicros;
+        return mSequencer.fire((now - mEpoch) / 1000000L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        PrintWriter pw = new PrintWriter(System.out, true);
+        mLateness.dump(pw, "  " + torch + " [" + pattern + "] ");
+    }
+
+    private long nowMillis() {
+        return (System.nanoTime() - mEpoch) / 1000000L;
+    }
+
+}
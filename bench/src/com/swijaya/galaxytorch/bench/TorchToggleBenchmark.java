@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.swijaya.galaxytorch.CameraDevice;
+
+/**
+ * Toggles per second for each torch backend against a simulated camera.
+ * Run with "-prof gc" (as "ant bench" does) for the bytes allocated per
+ * toggle, reported as gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TorchToggleBenchmark {
+
+    @Param({ Torches.DEFAULT, Torches.CACHED, Torches.SYSTEM })
+    public String torch;
+
+    /** Per camera service call; 0 measures our own overhead alone. */
+    @Param({ "0", "200000" })
+    public long latencyNanos;
+
+    @Param({ "80" })
+    public int parameters;
+
+    private SimulatedCamera mCamera;
+    private CameraDevice.Torch mTorch;
+    private boolean mOn;
+
+    @Setup
+    public void setUp() {
+        mCamera = new SimulatedCamera(parameters, latencyNanos, latencyNanos);
+        mTorch = Torches.create(torch, mCamera);
+        mOn = false;
+    }
+
+    @Benchmark
+    public boolean toggle() {
+        mOn = !mOn;
+        return mTorch.toggleTorch(mCamera, mOn);
+    }
+
+}
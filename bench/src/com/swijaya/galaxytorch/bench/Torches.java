@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch.bench;
+
+import com.swijaya.galaxytorch.CachedTorch;
+import com.swijaya.galaxytorch.CameraDevice;
+import com.swijaya.galaxytorch.DefaultTorch;
+import com.swijaya.galaxytorch.SystemTorch;
+
+/**
+ * The torch backends the benchmarks can be parameterized with.
+ */
+final class Torches {
+
+    static final String DEFAULT = "default";
+    static final String CACHED = "cached";
+    static final String SYSTEM = "system";
+
+    private Torches() {
+    }
+
+    static CameraDevice.Torch create(String name, SimulatedCamera camera) {
+        if (DEFAULT.equals(name))
+            return new DefaultTorch();
+        if (CACHED.equals(name))
+            return new CachedTorch();
+        if (SYSTEM.equals(name))
+            return SystemTorch.create(camera);
+        throw new IllegalArgumentException("Unknown torch: " + name);
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch.test;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import android.os.Messenger;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.swijaya.galaxytorch.GalaxyTorchService;
+import com.swijaya.galaxytorch.TorchClient;
+import com.swijaya.galaxytorch.TorchRemote;
+
+/**
+ * Times the bound control API (see TorchRemote): COUNT toggles sent one
+ * command per round trip, then COUNT in a single batch, each through a
+ * TorchClient on the instrumentation's thread. The torch really is
+ * toggled; an even number of toggles leaves it as it was. We run in the
+ * app's own process, so the binder hop is a direct call here; add its
+ * cost for outside clients. The rates go to logcat.
+ */
+public class TorchRemoteBenchmark extends InstrumentationTestCase {
+
+    private static final String TAG = TorchRemoteBenchmark.class.getSimpleName();
+
+    private static final int COUNT = 1000;     // even
+    private static final long BIND_TIMEOUT_MS = 5000;
+
+    private Context mContext;
+    private final CountDownLatch mBound = new CountDownLatch(1);
+    private volatile IBinder mService;
+    private final ServiceConnection mConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mService = service;
+            mBound.countDown();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mService = null;
+        }
+    };
+    private TorchClient mClient;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        assertTrue("cannot bind the service",
+                mContext.bindService(new Intent(mContext, GalaxyTorchService.class),
+                        mConnection, Context.BIND_AUTO_CREATE));
+        assertTrue("service not bound in time", mBound.await(BIND_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        mClient = new TorchClient(new Messenger(mService));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mClient.quit();
+        mContext.unbindService(mConnection);
+        super.tearDown();
+    }
+
+    public void testCommandsOneAtATime() throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < COUNT; i++)
+            assertEquals("command " + i + " not accepted", 1, mClient.command(TorchRemote.COMMAND_TOGGLE));
+        report("one at a time", System.nanoTime() - start);
+    }
+
+    public void testCommandsInOneBatch() throws Exception {
+        int[] commands = new int[COUNT];
+        for (int i = 0; i < COUNT; i++)
+            commands[i] = TorchRemote.COMMAND_TOGGLE;
+
+        long start = System.nanoTime();
+        assertEquals(COUNT, mClient.batch(commands, null));
+        report("in one batch", System.nanoTime() - start);
+    }
+
+    private static void report(String how, long nanos) {
+        Log.i(TAG, String.format(Locale.US, "%d commands %s: %.0f commands/s (%.1f us per command)",
+                COUNT, how, COUNT * 1e9 / nanos, nanos / 1e3 / COUNT));
+    }
+
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.io.PrintWriter;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Process;
+import android.util.Log;
+
+import com.swijaya.galaxytorch.util.LatencyHistogram;
+
+/**
+ * Strobes a light to the music: listens to the microphone, finds the beats
+ * with a BeatDetector and flashes the light on each one.
+ *
+ * Listening and flashing happen on two threads of their own, joined by a
+ * small ring of beat timestamps, so that a slow torch never holds up the
+ * audio. Should the torch fall behind, the oldest beat waiting is dropped;
+ * a flash late enough to land on the next beat is no use. The capture loop
+ * reads into a buffer allocated once, and neither a frame nor a beat
+ * allocates anything. A partial wake lock is held while listening, so that
+ * the beat is followed with the screen off too. Should the microphone fail,
+ * both threads end (and let go of the wake lock) by themselves; stop()
+ * still has to be called to release the microphone.
+ */
+public class AudioStrobe {
+
+    private static final String TAG = AudioStrobe.class.getSimpleName();
+
+    private static final int SAMPLE_RATE = 44100;  // the one rate every device records at
+    private static final int FLASH_MILLIS = 50;
+    private static final int QUEUE_CAPACITY = 4;
+    private static final long JOIN_TIMEOUT_MS = 500;
+
+    private final StrobeEngine.Light mLight;
+    private final PulseWakeLock mWakeLock;  // null if the device may sleep mid-music
+
+    // the beats waiting to be flashed, oldest first; guarded by mBeats
+    private final long[] mBeats = new long[QUEUE_CAPACITY];
+    private int mBeatHead;              // index of the oldest one
+    private int mBeatsWaiting;
+
+    private final LatencyHistogram mDetectLatency = new LatencyHistogram("beat detection per read");
+    private final LatencyHistogram mFlashLatency = new LatencyHistogram("beat to flash");
+
+    private AudioRecord mRecord;        // non-null from start() until stop()
+    private Thread mListenThread;
+    private Thread mFlashThread;
+    private volatile boolean mIsRunning;
+    private volatile int mBeatCount;
+    private volatile int mDroppedCount;
+
+    private final BeatDetector.Listener mOnBeat = new BeatDetector.Listener() {
+        @Override
+        public void onBeat(long sample, float strength) {
+            mBeatCount++;
+            queueBeat(System.nanoTime());
+        }
+    };
+
+    public AudioStrobe(StrobeEngine.Light light, PulseWakeLock wakeLock) {
+        mLight = light;
+        mWakeLock = wakeLock;
+    }
+
+    /**
+     * Start listening and flashing.
+     *
+     * @return false if the microphone cannot be recorded from
+     */
+    public boolean start() {
+        if (mIsRunning)
+            return true;
+        if (mRecord != null)
+            stop();     // the last session ended on its own; clean up after it
+
+        final BeatDetector detector = new BeatDetector(SAMPLE_RATE, mOnBeat);
+        int minBufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize <= 0) {
+            Log.e(TAG, "Cannot record at " + SAMPLE_RATE + " Hz: " + minBufferSize);
+            return false;
+        }
+        try {
+            mRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                    Math.max(minBufferSize, detector.getFrameSize() * 2 * 4));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "IllegalArgumentException: " + e.getLocalizedMessage());
+            return false;
+        }
+        if (mRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            Log.e(TAG, "Cannot open the microphone");
+            mRecord.release();
+            mRecord = null;
+            return false;
+        }
+        try {
+            mRecord.startRecording();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "IllegalStateException: " + e.getLocalizedMessage());
+            mRecord.release();
+            mRecord = null;
+            return false;
+        }
+
+        synchronized (mBeats) {
+            mBeatsWaiting = 0;
+        }
+        mIsRunning = true;
+        mFlashThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+                flash();
+            }
+        }, TAG + "-flash");
+        final AudioRecord record = mRecord;
+        final Thread flashThread = mFlashThread;
+        mListenThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                listen(record, detector, flashThread);
+            }
+        }, TAG + "-listen");
+        // held in the flash thread's name, which lets go of it on its way
+        // out; a session that outlives stop()'s join cannot let go of the next's
+        if (mWakeLock != null)
+            mWakeLock.acquire(mFlashThread);
+        mListenThread.start();
+        mFlashThread.start();
+        Log.v(TAG, "Listening for beats in frames of " + detector.getFrameSize() + " samples");
+        return true;
+    }
+
+    private void listen(AudioRecord record, BeatDetector detector, Thread flashThread) {
+        // one frame per read keeps the latency down to a frame
+        short[] buffer = new short[detector.getFrameSize()];
+        while (mIsRunning) {
+            int read = record.read(buffer, 0, buffer.length);
+            if (read < 0) {
+                Log.e(TAG, "Cannot read from the microphone: " + read);
+                break;
+            }
+            long start = System.nanoTime();
+            detector.feed(buffer, 0, read);
+            mDetectLatency.recordSince(start);
+        }
+        // whether stopped or broken, the flash thread has nothing more coming
+        mIsRunning = false;
+        flashThread.interrupt();
+        Log.v(TAG, "Stopped listening after " + detector.getFrameCount() + " frames, "
+                + detector.getBeatCount() + " beats");
+    }
+
+    private void flash() {
+        try {
+            while (mIsRunning) {
+                long beat = takeBeat();
+                mLight.setLight(true);
+                mFlashLatency.recordSince(beat);
+                Thread.sleep(FLASH_MILLIS);
+                mLight.setLight(false);
+            }
+        } catch (InterruptedException e) {
+            // stopping
+        } finally {
+            mLight.setLight(false);
+            if (mWakeLock != null)
+                mWakeLock.release(Thread.currentThread());
+        }
+    }
+
+    /**
+     * Queue a beat for the flash thread, dropping the oldest waiting one
+     * if the ring is full. Only called from the listen thread.
+     */
+    private void queueBeat(long beat) {
+        synchronized (mBeats) {
+            if (mBeatsWaiting == mBeats.length) {
+                mBeatHead = (mBeatHead + 1) % mBeats.length;
+                mBeatsWaiting--;
+                mDroppedCount++;
+            }
+            mBeats[(mBeatHead + mBeatsWaiting) % mBeats.length] = beat;
+            mBeatsWaiting++;
+            mBeats.notify();
+        }
+    }
+
+    /**
+     * Wait for the oldest beat queued. Only called from the flash thread,
+     * which is interrupted once no more beats are coming.
+     */
+    private long takeBeat() throws InterruptedException {
+        synchronized (mBeats) {
+            while (mBeatsWaiting == 0)
+                mBeats.wait();
+            long beat = mBeats[mBeatHead];
+            mBeatHead = (mBeatHead + 1) % mBeats.length;
+            mBeatsWaiting--;
+            return beat;
+        }
+    }
+
+    /**
+     * Stop listening, leave the light off and release the microphone.
+     * Blocks until both threads are done, so that no flash can fire after
+     * this returns.
+     */
+    public void stop() {
+        if (mRecord == null)
+            return;
+        mIsRunning = false;
+        mFlashThread.interrupt();
+        try {
+            mListenThread.join(JOIN_TIMEOUT_MS);
+            mFlashThread.join(JOIN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Log.e(TAG, "InterruptedException: " + e.getLocalizedMessage());
+            Thread.currentThread().interrupt();
+        }
+        mRecord.stop();
+        mRecord.release();
+        mRecord = null;
+        Log.v(TAG, "Flashed to " + mBeatCount + " beats, dropped " + mDroppedCount);
+    }
+
+    public boolean isRunning() {
+        return mIsRunning;
+    }
+
+    public int getBeatCount() {
+        return mBeatCount;
+    }
+
+    /**
+     * @return how many beats were dropped because the torch fell behind
+     */
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "music strobe: " + mBeatCount + " beats, " + mDroppedCount + " dropped");
+        mDetectLatency.dump(pw, prefix + "  ");
+        mFlashLatency.dump(pw, prefix + "  ");
+    }
+
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+/**
+ * Finds beats in a stream of 16-bit mono PCM as it arrives. Like
+ * StrobeSequencer, it has no thread and nothing of Android in it, so the
+ * same code that listens to the microphone can be run offline over
+ * recorded audio.
+ *
+ * The samples are low-passed to the kick drum and bass range and cut into
+ * frames of 10 ms. A beat is a frame whose energy rises over the previous
+ * frame's well beyond the rises of the last second or so, with at least
+ * MIN_BEAT_INTERVAL_MS since the previous beat. A beat is reported as soon
+ * as its frame ends, without waiting to see whether the rise peaks later,
+ * which keeps the latency to one frame. All state lives in buffers
+ * allocated up front, so feeding the detector allocates nothing.
+ */
+public class BeatDetector {
+
+    /**
+     * Told of each beat, on whichever thread fed the samples in.
+     */
+    public interface Listener {
+
+        /**
+         * @param sample the index, counting from the first sample fed, of
+         *        the end of the frame the beat was found in
+         * @param strength how far the rise cleared the threshold; 1 or more
+         */
+        public void onBeat(long sample, float strength);
+
+    }
+
+    public static final int FRAME_MS = 10;
+    public static final int MIN_BEAT_INTERVAL_MS = 200;
+
+    private static final double CUTOFF_HZ = 150;
+    private static final int HISTORY_FRAMES = 100;
+    private static final float SENSITIVITY = 1.5f;     // standard deviations above the mean rise
+    private static final float MIN_RISE = 1e-5f;       // in energy relative to full scale, i.e. -50 dB
+
+    private final Listener mListener;
+    private final int mFrameSize;
+    private final int mMinBeatInterval;
+
+    // the low-pass biquad's coefficients and state
+    private final float mB0, mB1, mB2, mA1, mA2;
+    private float mX1, mX2, mY1, mY2;
+
+    // the frame being filled
+    private int mFrameFill;
+    private double mFrameEnergy;
+    private float mLastLevel;
+
+    // the rises over the last HISTORY_FRAMES frames, and their running sums
+    private final float[] mRises = new float[HISTORY_FRAMES];
+    private int mRiseIndex;
+    private int mRiseCount;
+    private double mRiseSum;
+    private double mRiseSquares;
+
+    private long mSamples;
+    private long mFrames;
+    private long mLastBeat = Long.MIN_VALUE / 2;
+    private int mBeats;
+
+    /**
+     * @param sampleRate of the samples to be fed, in Hz
+     * @param listener told of each beat
+     */
+    public BeatDetector(int sampleRate, Listener listener) {
+        mListener = listener;
+        mFrameSize = sampleRate * FRAME_MS / 1000;
+        mMinBeatInterval = sampleRate * MIN_BEAT_INTERVAL_MS / 1000;
+
+        // a Butterworth low-pass, per the Audio EQ Cookbook
+        double w0 = 2 * Math.PI * CUTOFF_HZ / sampleRate;
+        double alpha = Math.sin(w0) / Math.sqrt(2);
+        double cos = Math.cos(w0);
+        double a0 = 1 + alpha;
+        mB0 = (float) ((1 - cos) / 2 / a0);
+        mB1 = (float) ((1 - cos) / a0);
+        mB2 = mB0;
+        mA1 = (float) (-2 * cos / a0);
+        mA2 = (float) ((1 - alpha) / a0);
+    }
+
+    /**
+     * @return how many samples make up a frame; feeding this many at a
+     *         time gives the lowest latency
+     */
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * Feed in the next samples; any beat found is reported before this returns.
+     */
+    public void feed(short[] pcm, int offset, int count) {
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            float x = pcm[i] / 32768f;
+            float y = mB0 * x + mB1 * mX1 + mB2 * mX2 - mA1 * mY1 - mA2 * mY2;
+            mX2 = mX1;
+            mX1 = x;
+            mY2 = mY1;
+            mY1 = y;
+            mFrameEnergy += y * y;
+
+            if (++mFrameFill == mFrameSize) {
+                mSamples += mFrameFill;
+                endFrame();
+            }
+        }
+    }
+
+    private void endFrame() {
+        float level = (float) (mFrameEnergy / mFrameSize);
+        float rise = Math.max(0, level - mLastLevel);
+        mLastLevel = level;
+        mFrameEnergy = 0;
+        mFrameFill = 0;
+        mFrames++;
+
+        if (mRiseCount == HISTORY_FRAMES) {
+            float old = mRises[mRiseIndex];
+            mRiseSum -= old;
+            mRiseSquares -= old * old;
+        } else {
+            mRiseCount++;
+        }
+        if (mRiseCount > HISTORY_FRAMES / 2 && mSamples - mLastBeat >= mMinBeatInterval) {
+            double mean = mRiseSum / (mRiseCount - 1);
+            double variance = Math.max(0, mRiseSquares / (mRiseCount - 1) - mean * mean);
+            float threshold = (float) Math.max(MIN_RISE, mean + SENSITIVITY * Math.sqrt(variance));
+            if (rise > threshold) {
+                mLastBeat = mSamples;
+                mBeats++;
+                mListener.onBeat(mSamples, rise / threshold);
+            }
+        }
+        mRises[mRiseIndex] = rise;
+        mRiseSum += rise;
+        mRiseSquares += rise * rise;
+        mRiseIndex = (mRiseIndex + 1) % HISTORY_FRAMES;
+    }
+
+    /**
+     * Forget the audio heard so far, but not the counts.
+     */
+    public void reset() {
+        mX1 = mX2 = mY1 = mY2 = 0;
+        mFrameFill = 0;
+        mFrameEnergy = 0;
+        mLastLevel = 0;
+        mRiseIndex = mRiseCount = 0;
+        mRiseSum = mRiseSquares = 0;
+        mLastBeat = mSamples - mMinBeatInterval;
+    }
+
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    public int getBeatCount() {
+        return mBeats;
+    }
+
+}
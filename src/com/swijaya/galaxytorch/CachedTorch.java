@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import android.util.Log;
+
+/**
+ * A torch that reads the camera's parameters only once per acquired camera.
+ *
+ * DefaultTorch does a full getParameters()/setParameters() round-trip on
+ * every toggle; each of those serializes and parses the whole parameter
+ * string through the camera service, which adds up quickly when strobing.
+ * This implementation snapshots the parameters the first time it sees a
+ * camera, keeps a prebuilt "torch" and "off" copy around, and afterwards
+ * only pushes whichever one the requested flash mode calls for. Call
+ * invalidate() whenever the underlying camera is acquired or released.
+ */
+public class CachedTorch implements CameraDevice.Torch {
+
+    private static final String TAG = CachedTorch.class.getSimpleName();
+
+    private TorchCamera mCachedCamera;      // the camera the snapshots below belong to
+    private TorchCamera.Parameters mTorchParams;
+    private TorchCamera.Parameters mOffParams;
+    private String mAppliedMode;            // the flash mode last pushed to the camera
+
+    private int mRoundTripsAvoided;
+
+    public boolean toggleTorch(TorchCamera camera, boolean on) {
+        String mode = (on ? TorchCamera.FLASH_MODE_TORCH : TorchCamera.FLASH_MODE_OFF);
+        try {
+            if (camera != mCachedCamera) {
+                prime(camera);
+            } else {
+                // DefaultTorch would have read the parameters again here
+                mRoundTripsAvoided++;
+            }
+
+            if (mode.equals(mAppliedMode)) {
+                // the camera is already in the requested mode; skip the write, too
+                mRoundTripsAvoided++;
+                return true;
+            }
+
+            camera.setParameters(on ? mTorchParams : mOffParams);
+            mAppliedMode = mode;
+        }
+        catch (RuntimeException e) {
+            Log.e(TAG, "Failed to set flash mode " + mode + ": " + e.getLocalizedMessage());
+            invalidate();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Forget the cached parameter snapshots. The next toggle will read them
+     * afresh from whatever camera it is given.
+     */
+    public void invalidate() {
+        mCachedCamera = null;
+        mTorchParams = null;
+        mOffParams = null;
+        mAppliedMode = null;
+    }
+
+    /**
+     * @return the number of getParameters()/setParameters() calls this torch
+     *         skipped compared to DefaultTorch
+     */
+    public int getRoundTripsAvoided() {
+        return mRoundTripsAvoided;
+    }
+
+    private void prime(TorchCamera camera) {
+        Log.v(TAG, "Caching camera parameters...");
+        invalidate();
+
+        // a parameter snapshot cannot be copied locally, so read it
+        // twice: once to become the "torch" copy, once for the "off" copy
+        mTorchParams = camera.getParameters();
+        mTorchParams.setFlashMode(TorchCamera.FLASH_MODE_TORCH);
+        mOffParams = camera.getParameters();
+        mAppliedMode = mOffParams.getFlashMode();
+        mOffParams.setFlashMode(TorchCamera.FLASH_MODE_OFF);
+
+        mCachedCamera = camera;
+    }
+
+}
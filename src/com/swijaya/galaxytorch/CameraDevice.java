@@ -24,61 +24,279 @@
 package com.swijaya.galaxytorch;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.List;
 
-import android.hardware.Camera;
-import android.os.Handler;
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.SurfaceTexture;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
+import com.swijaya.galaxytorch.util.CameraManagerCompat;
+import com.swijaya.galaxytorch.util.LatencyHistogram;
+
 public class CameraDevice {
 
     public interface Torch {
 
-        public boolean toggleTorch(Camera camera, boolean on);
+        public boolean toggleTorch(TorchCamera camera, boolean on);
+
+    }
+
+    /**
+     * Notified when the camera is taken away from us, e.g. because another
+     * application with a higher priority opened it. Called on the thread
+     * that acquired the camera (if it has a looper).
+     */
+    public interface OnCameraLostListener {
+
+        public void onCameraLost(int error);
+
+    }
+
+    /**
+     * Opens the camera the legacy way, when there is no system torch to
+     * use; LegacyCamera.OPENER on a device.
+     */
+    public interface CameraOpener {
+
+        /**
+         * @return the opened camera, or null if there is none
+         * @throws RuntimeException if it cannot be opened, e.g. because
+         *                          another application holds it
+         */
+        public PreviewCamera open();
 
     }
 
     private static final String TAG = CameraDevice.class.getSimpleName();
 
-    private Camera mCamera;
-    private CameraDevice.Torch mTorch;
-    private boolean mIsFlashlightOn;
+    // how many acquisitions in a row the cached torch must fail in before
+    // DefaultTorch is stored as the strategy that works; one failure may
+    // well be a passing one
+    private static final int CACHED_TORCH_STRIKES = 2;
+
+    private final TorchCapabilities mCapabilities;
+    private final int mCameraId;
+    private final SystemTorch mSystemTorch;     // null if the platform cannot switch the torch itself
+    private final CameraOpener mCameraOpener;
+
+    private boolean mIsAcquired;
+    private PreviewCamera mCamera;              // stays null while the system torch is in use
+    private SurfaceHolder mHolder;              // kept in case we must fall back from the system torch
+    private final CachedTorch mCachedTorch = new CachedTorch();
+    private volatile CameraDevice.Torch mTorch; // the strategy resolved for the acquired camera;
+                                                // null if it has no torch mode
+    private volatile boolean mIsFlashlightOn;   // also set from the strobe engine's thread
     private boolean mIsPreviewStarted;
 
-    private Handler mHandler = new Handler();
-    private boolean mStateOn;   // only used for strobing effect
-    private final Runnable mStrober = new Runnable() {
+    private StrobeEngine mStrobeEngine; // created the first time we strobe an acquired camera
+    private LightPattern mStrobePattern = LightPattern.strobe(
+            LightPattern.DEFAULT_FREQUENCY, LightPattern.DEFAULT_DUTY_CYCLE);
+    private StrobeEngine.Listener mPatternListener;
+    private boolean mIsMusicStrobe;     // whether strobing follows the beat instead of the pattern
+    private AudioStrobe mAudioStrobe;   // created the first time we strobe to the music
+    private CharSequence mMorseMessage; // what strobing sends in Morse instead of the pattern; null if nothing
+    private int mMorseWpm = MorseEncoder.DEFAULT_WPM;
+    private int mMorseRepeats = 1;
+    private volatile MorseTransmitter mMorseTransmitter;    // sending, or sent last; null if none yet
+    private boolean mIsSendingMorse;    // whether strobing is sending it right now
+    private final PulseWakeLock mWakeLock;  // held by either while pulses are pending; null if
+                                            // the device may sleep mid-pattern
+    private int mBrightness = 100;      // percent; anything less dims the steady torch
+    private int mDimmedTo;              // the strength set by the platform, in percent; 0 if
+                                        // not dimmed by it (but maybe by pulse-width modulation)
+    private boolean mIsPulsing;         // whether the strobe engine is dimming the torch
+    private int mCachedTorchStrikes;    // acquisitions in a row the cached torch failed in
+    private OnCameraLostListener mCameraLostListener;
+
+    // how long each operation takes, and how often it goes wrong; see dump()
+    private final LatencyHistogram mAcquireLatency = new LatencyHistogram("acquireCamera");
+    private final LatencyHistogram mPreviewLatency = new LatencyHistogram("setPreview*AndStartPreview");
+    private final LatencyHistogram mToggleLatency = new LatencyHistogram("toggleCameraLED");
+    private final LatencyHistogram mReleaseLatency = new LatencyHistogram("releaseCamera");
+    private volatile int mAcquireFailures;
+    private volatile int mPreviewFailures;
+    private volatile int mToggleFailures;
+    private volatile int mSystemTorchRetries;   // system torch refused; retried with the camera
+    private volatile int mDefaultTorchRetries;  // cached torch failed; retried with DefaultTorch
+    // the torch is switched from the worker calling us, the strobe engine's
+    // thread and the music strobe's; whoever switches it, or changes which
+    // torch and camera there are, holds this
+    private final Object mTorchLock = new Object();
+    private final StrobeEngine.Light mStrobeLight = new StrobeEngine.Light() {
         @Override
-        public void run() {
-            if (mIsFlashlightOn) {
-                if (mStateOn) {
-                    // turn state on
-                    mTorch.toggleTorch(mCamera, true);
-                    mStateOn = false;
-                    mHandler.postDelayed(this, 20);
-                } else {
-                    // turn state off
-                    mTorch.toggleTorch(mCamera, false);
-                    mStateOn = true;
-                    mHandler.postDelayed(this, 100);
-                }
-            } else {
-                mTorch.toggleTorch(mCamera, false);
-            }
+        public void setLight(boolean on) {
+            // edges fall back from a failing torch just as a steady toggle does
+            switchTorch(on);
+        }
+    };
+    private final StrobeEngine.Listener mStrobeListener = new StrobeEngine.Listener() {
+        @Override
+        public void onPatternFinished() {
+            Log.v(TAG, "Light pattern finished");
+            mIsSendingMorse = false;
+            postFlashlightState(false);
+            if (mPatternListener != null)
+                mPatternListener.onPatternFinished();
         }
     };
 
+    /**
+     * Finds the camera and the platform's torch switch, which queries the
+     * camera service; best done off the main thread.
+     *
+     * @param capabilities  the record of what was probed so far
+     */
+    public CameraDevice(Context context, TorchCapabilities capabilities) {
+        this(capabilities,
+                LegacyCamera.findDefaultCameraId(),
+                CameraManagerCompat.create(context.getApplicationContext()),
+                LegacyCamera.OPENER,
+                new PulseWakeLock(context.getApplicationContext()));
+    }
+
+    /**
+     * Drive whatever hardware we are given; the tests give fakes.
+     *
+     * @param cameraId      the id the legacy camera is known by in capabilities
+     * @param manager       the platform's torch switch; null if there is none
+     * @param cameraOpener  opens the legacy camera
+     * @param wakeLock      held while pulses are pending; may be null
+     */
+    CameraDevice(TorchCapabilities capabilities, int cameraId, SystemTorch.Manager manager,
+            CameraOpener cameraOpener, PulseWakeLock wakeLock) {
+        mCapabilities = capabilities;
+        mCameraId = cameraId;
+        mSystemTorch = SystemTorch.create(manager);
+        mCameraOpener = cameraOpener;
+        mWakeLock = wakeLock;
+    }
+
     public boolean isFlashlightOn() {
         return mIsFlashlightOn;
     }
 
+    /**
+     * @return whether the acquired camera needs a preview surface set up
+     *         (and started) before its flashlight LED can be toggled
+     */
+    public boolean requiresPreview() {
+        return (mTorch != mSystemTorch);
+    }
+
     private void postFlashlightState(boolean on) {
         mIsFlashlightOn = on;
     }
 
+    /**
+     * Set the pattern played the next time the LED is toggled on in strobing mode.
+     */
+    public void setStrobePattern(LightPattern pattern) {
+        mStrobePattern = pattern;
+    }
+
+    /**
+     * Have strobing mode flash the LED to the beat picked up by the
+     * microphone instead of playing the pattern; takes effect the next time
+     * it is toggled on. Falls back to the pattern if the microphone cannot
+     * be recorded from.
+     */
+    public void setMusicStrobe(boolean music) {
+        mIsMusicStrobe = music;
+    }
+
+    /**
+     * Have strobing mode send a message in Morse code instead of playing
+     * the pattern; takes effect the next time it is toggled on. Strobing
+     * to the music, if set, still comes first.
+     *
+     * @param message the text to send, read as it is sent; null to play
+     *                the pattern again
+     * @param wpm the speed, in words per minute
+     * @param repeats how many times to send it, or LightPattern.REPEAT_FOREVER
+     *                to loop until turned off; the pattern's own repeat
+     *                count does not apply
+     */
+    public void setMorseMessage(CharSequence message, int wpm, int repeats) {
+        mMorseMessage = message;
+        mMorseWpm = wpm;
+        mMorseRepeats = repeats;
+    }
+
+    /**
+     * @return what is sending the Morse message (to query its measured
+     *         speed), or what sent the last one; null if none was sent yet
+     */
+    public MorseTransmitter getMorseTransmitter() {
+        return mMorseTransmitter;
+    }
+
+    /**
+     * @return whether the strobe is sending a Morse message right now
+     */
+    public boolean isSendingMorse() {
+        return mIsSendingMorse;
+    }
+
+    /**
+     * Set how bright the steady (not strobing) torch is; it takes effect
+     * the next time it is turned on. Where the platform has strength
+     * levels, they are used; otherwise, the LED is pulse-width modulated.
+     * 
+     * @param percent of the full brightness
+     */
+    public void setBrightness(int percent) {
+        mBrightness = Math.max(1, Math.min(100, percent));
+    }
+
+    public int getBrightness() {
+        return mBrightness;
+    }
+
+    public LightPattern getStrobePattern() {
+        return mStrobePattern;
+    }
+
+    /**
+     * @return the percentage of the full brightness the torch currently
+     *         gives: the strength level set, the duty cycle measured while
+     *         pulsing, or all or nothing
+     */
+    public float getEffectiveBrightness() {
+        if (!mIsFlashlightOn)
+            return 0;
+        if (mDimmedTo > 0)
+            return mDimmedTo;
+        if (mIsPulsing && mStrobeEngine != null)
+            return mStrobeEngine.getMeasuredDutyCycle();
+        return 100;
+    }
+
+    /**
+     * Register a listener to be told (on the strobe engine's thread) when a
+     * pattern with a finite repeat count has finished and the LED is off.
+     */
+    public void setPatternListener(StrobeEngine.Listener listener) {
+        mPatternListener = listener;
+    }
+
+    public void setOnCameraLostListener(OnCameraLostListener listener) {
+        mCameraLostListener = listener;
+    }
+
+    /**
+     * @return the engine driving the strobe (to query its jitter record), or
+     *         null if the currently acquired camera has not strobed yet
+     */
+    public StrobeEngine getStrobeEngine() {
+        return mStrobeEngine;
+    }
+
     /* not currently used
-    protected Camera getCamera() {
+    protected PreviewCamera getCamera() {
         return mCamera;
     }
     */
@@ -86,39 +304,137 @@ public class CameraDevice {
     /**
      * Acquire the default camera object (it should support a flashlight).
      * Subclasses can override this method for a more specialized usage of
-     * its camera hardware, if necessary.
+     * its camera hardware, if necessary. Where the platform can switch the
+     * torch by itself, nothing is actually opened.
      * 
      * @return whether the method was successful
      */
     public boolean acquireCamera() {
+        long start = System.nanoTime();
+        boolean success = acquire();
+        mAcquireLatency.recordSince(start);
+        if (!success)
+            mAcquireFailures++;
+        return success;
+    }
+
+    private boolean acquire() {
         Log.v(TAG, "Acquiring camera...");
-        assert (mCamera == null);
+        assert (!mIsAcquired);
+        synchronized (mTorchLock) {
+            if (canUseSystemTorch()) {
+                if (!mCapabilities.isProbed(mCameraId))
+                    mCapabilities.store(mCameraId, null, TorchCapabilities.STRATEGY_SYSTEM);
+                Log.v(TAG, "Using the system torch; no camera to open");
+                mTorch = mSystemTorch;
+                mIsAcquired = true;
+                return true;
+            }
+
+            return openCamera();
+        }
+    }
+
+    /**
+     * @return whether acquireCamera() would leave the torch to the platform,
+     *         without opening the camera (or needing a preview)
+     */
+    public boolean canUseSystemTorch() {
+        if (mSystemTorch == null)
+            return false;
+        String strategy = mCapabilities.getStrategy(mCameraId);
+        return (strategy == null || TorchCapabilities.STRATEGY_SYSTEM.equals(strategy));
+    }
+
+    private boolean openCamera() {
+        mCachedTorch.invalidate();
+        TorchTrace.begin(TorchTrace.CAMERA_OPEN);
         try {
-            mCamera = Camera.open();
+            mCamera = mCameraOpener.open();
         }
         catch (RuntimeException e) {
             Log.e(TAG, "Failed to open camera: " + e.getLocalizedMessage());
         }
+        finally {
+            TorchTrace.end(TorchTrace.CAMERA_OPEN);
+        }
+
+        if (mCamera != null) {
+            mCamera.setErrorListener(new PreviewCamera.ErrorListener() {
+                @Override
+                public void onError(int error, PreviewCamera camera) {
+                    Log.w(TAG, "Camera error " + error);
+                    if (camera == mCamera && mCameraLostListener != null)
+                        mCameraLostListener.onCameraLost(error);
+                }
+            });
+            mTorch = resolveTorch();
+            mIsAcquired = true;
+        }
 
         return (mCamera != null);
     }
 
+    /**
+     * The system torch has failed us (the platform refused to switch it):
+     * forget it, open the camera the legacy way instead, and hand it any
+     * preview surface we were given in the meantime.
+     */
+    private boolean fallBackFromSystemTorch() {
+        Log.w(TAG, "System torch failed; falling back to the camera");
+        mSystemTorchRetries++;
+        mCapabilities.forget(mCameraId);
+        mTorch = null;
+        mIsAcquired = false;
+        if (!openCamera())
+            return false;
+        if (mHolder != null)
+            setPreviewDisplayAndStartPreview(mHolder);
+        return true;
+    }
+
     public void releaseCamera() {
-        if (mCamera != null) {
+        long start = System.nanoTime();
+        TorchTrace.begin(TorchTrace.RELEASE);
+        release();
+        TorchTrace.end(TorchTrace.RELEASE);
+        mReleaseLatency.recordSince(start);
+    }
+
+    private void release() {
+        if (mIsAcquired) {
             Log.v(TAG, "Releasing camera...");
-            if (mIsFlashlightOn) {
-                // attempt to cleanly turn off the torch (in case keeping a
-                // "torch" on is a hackery) prior to release
-                mTorch.toggleTorch(mCamera, false);
+            if (mStrobeEngine != null) {
+                mStrobeEngine.quit();
+                mStrobeEngine = null;
+            }
+            if (mAudioStrobe != null)
+                mAudioStrobe.stop();
+            mIsPulsing = false;
+            mDimmedTo = 0;
+            synchronized (mTorchLock) {
+                if (mIsFlashlightOn && mTorch != null) {
+                    // attempt to cleanly turn off the torch (in case keeping a
+                    // "torch" on is a hackery) prior to release
+                    mTorch.toggleTorch(mCamera, false);
+                }
                 postFlashlightState(false);
+                mIsAcquired = false;
+                mTorch = null;
+                mHolder = null;
+                if (mCamera == null)
+                    return;     // the system torch holds nothing to release
+                stopPreview();
+                mCamera.release();
+                mCamera = null;
+                mCachedTorch.invalidate();
             }
-            stopPreview();
-            mCamera.release();
-            mCamera = null;
+            Log.v(TAG, "Parameter round-trips avoided so far: " + mCachedTorch.getRoundTripsAvoided());
         }
     }
 
     public void stopPreview() {
+        mHolder = null;
         if (mIsPreviewStarted && mCamera != null) {
             Log.v(TAG, "Stopping preview...");
             mCamera.stopPreview();
@@ -129,7 +445,13 @@ public class CameraDevice {
     public void startPreview() {
         if (!mIsPreviewStarted && mCamera != null) {
             Log.v(TAG, "Starting preview...");
-            mCamera.startPreview();
+            TorchTrace.begin(TorchTrace.START_PREVIEW);
+            try {
+                mCamera.startPreview();
+            }
+            finally {
+                TorchTrace.end(TorchTrace.START_PREVIEW);
+            }
             mIsPreviewStarted = true;
         }
     }
@@ -145,6 +467,12 @@ public class CameraDevice {
      * @param holder a fully instantiated SurfaceHolder
      */
     public void setPreviewDisplay(SurfaceHolder holder) {
+        if (mIsAcquired && !requiresPreview()) {
+            // nothing to preview to, but hold on to it in case of a fallback
+            mHolder = holder;
+            return;
+        }
+
         assert (mCamera != null);
         if (mCamera == null) {
             Log.wtf(TAG, "surfaceCreated called with NULL camera!");
@@ -152,31 +480,166 @@ public class CameraDevice {
         }
 
         Log.v(TAG, "Setting preview display with a surface holder...");
+        TorchTrace.begin(TorchTrace.SET_PREVIEW);
         try {
             mCamera.setPreviewDisplay(holder);
         }
         catch (IOException e) {
             Log.e(TAG, "Error setting camera preview: " + e.getLocalizedMessage());
+            mPreviewFailures++;
+        }
+        finally {
+            TorchTrace.end(TorchTrace.SET_PREVIEW);
         }
     }
 
     public void setPreviewDisplayAndStartPreview(SurfaceHolder holder) {
+        long start = System.nanoTime();
         setPreviewDisplay(holder);
         startPreview();
+        mPreviewLatency.recordSince(start);
+    }
+
+    /**
+     * Supply the underlying camera device with an offscreen SurfaceTexture
+     * to preview into (API 11+). Unlike a SurfaceHolder, it is usable as soon
+     * as it is constructed, so there is no window to wait on.
+     * 
+     * @param texture a SurfaceTexture nobody else consumes
+     * @return whether the camera accepted the texture
+     */
+    public boolean setPreviewTextureAndStartPreview(SurfaceTexture texture) {
+        long start = System.nanoTime();
+        boolean success = setPreviewTexture(texture);
+        mPreviewLatency.recordSince(start);
+        if (!success)
+            mPreviewFailures++;
+        return success;
+    }
+
+    @SuppressLint("NewApi")
+    private boolean setPreviewTexture(SurfaceTexture texture) {
+        if (mIsAcquired && !requiresPreview())
+            return true;
+        if (mCamera == null) {
+            Log.wtf(TAG, "setPreviewTexture called with NULL camera!");
+            return false;
+        }
+
+        Log.v(TAG, "Setting preview texture...");
+        try {
+            mCamera.setPreviewTexture(texture);
+            startPreview();
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Error setting camera preview texture: " + e.getLocalizedMessage());
+            return false;
+        }
+        catch (RuntimeException e) {
+            Log.e(TAG, "Error starting camera preview on texture: " + e.getLocalizedMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Pick the Torch strategy for the freshly acquired camera. The camera's
+     * capabilities are only probed the first time we see it on this OS build;
+     * afterwards they come straight from the persistent capability store.
+     *
+     * @return the torch to use, or null if the camera has no torch mode
+     */
+    private CameraDevice.Torch resolveTorch() {
+        String strategy = mCapabilities.getStrategy(mCameraId);
+        if (strategy == null) {
+            Log.v(TAG, "Probing capabilities of camera " + mCameraId + "...");
+            List<String> flashModes;
+            TorchTrace.begin(TorchTrace.PROBE);
+            try {
+                flashModes = mCamera.getParameters().getSupportedFlashModes();
+            }
+            catch (RuntimeException e) {
+                Log.e(TAG, "Failed to probe camera parameters: " + e.getLocalizedMessage());
+                return null;
+            }
+            finally {
+                TorchTrace.end(TorchTrace.PROBE);
+            }
+            boolean supportsTorch = (flashModes != null) &&
+                    (flashModes.contains(TorchCamera.FLASH_MODE_TORCH));
+            strategy = (supportsTorch ? TorchCapabilities.STRATEGY_CACHED : TorchCapabilities.STRATEGY_NONE);
+            mCapabilities.store(mCameraId, flashModes, strategy);
+        }
+
+        if (TorchCapabilities.STRATEGY_CACHED.equals(strategy)) {
+            return mCachedTorch;
+        } else if (TorchCapabilities.STRATEGY_DEFAULT.equals(strategy)) {
+            return new DefaultTorch();
+        }
+        return null;
+    }
+
+    /**
+     * Turn the LED on or off with the resolved torch. Should the parameter
+     * caching torch fail, fall back to DefaultTorch for the rest of this
+     * acquisition, and remember that it is the one that works on this
+     * device once that has happened CACHED_TORCH_STRIKES times in a row.
+     */
+    private boolean toggleTorch(boolean on) {
+        TorchTrace.begin(TorchTrace.SET_TORCH);
+        try {
+            return switchTorch(on);
+        }
+        finally {
+            TorchTrace.end(TorchTrace.SET_TORCH);
+        }
+    }
+
+    /**
+     * toggleTorch() without the trace section, which strobe edges (called
+     * on whichever thread strobes) would flood the trace with.
+     */
+    private boolean switchTorch(boolean on) {
+        synchronized (mTorchLock) {
+            if (!mIsAcquired || mTorch == null)
+                return false;   // released (or never had a torch) meanwhile
+            return switchTorchLocked(on);
+        }
     }
 
-    private boolean supportsTorchMode() {
-        if (mCamera == null)
+    private boolean switchTorchLocked(boolean on) {
+        if (mTorch.toggleTorch(mCamera, on)) {
+            if (mTorch == mCachedTorch)
+                mCachedTorchStrikes = 0;
+            return true;
+        }
+        if (mTorch == mSystemTorch) {
+            // try once more with the legacy camera
+            return fallBackFromSystemTorch() && mTorch != null && switchTorchLocked(on);
+        }
+        if (mTorch != mCachedTorch)
             return false;
 
-        Camera.Parameters params = mCamera.getParameters();
-        List<String> flashModes = params.getSupportedFlashModes();
-        return (flashModes != null) &&
-                (flashModes.contains(Camera.Parameters.FLASH_MODE_TORCH));
+        Log.w(TAG, "Cached torch failed; falling back to the default torch");
+        mDefaultTorchRetries++;
+        CameraDevice.Torch fallback = new DefaultTorch();
+        try {
+            if (!fallback.toggleTorch(mCamera, on))
+                return false;
+        }
+        catch (RuntimeException e) {
+            Log.e(TAG, "Default torch failed, too: " + e.getLocalizedMessage());
+            return false;
+        }
+        mTorch = fallback;
+        if (++mCachedTorchStrikes >= CACHED_TORCH_STRIKES)
+            mCapabilities.storeStrategy(mCameraId, TorchCapabilities.STRATEGY_DEFAULT);
+        return true;
     }
 
     /**
-     * Toggle the camera device's flashlight LED in a continuous or strobing manner.
+     * Toggle the camera device's flashlight LED in a continuous or strobing
+     * manner; the latter plays whatever pattern setStrobePattern() was given.
      * Pre-condition: the camera device, and its associated resources, has
      *                been acquired and set up
      * 
@@ -185,42 +648,158 @@ public class CameraDevice {
      * @return operation success
      */
     public boolean toggleCameraLED(boolean on, boolean strobe) {
-        assert (mCamera != null);
-        if (mCamera == null) {
+        long start = System.nanoTime();
+        boolean success = toggle(on, strobe);
+        mToggleLatency.recordSince(start);
+        if (!success)
+            mToggleFailures++;
+        return success;
+    }
+
+    private boolean toggle(boolean on, boolean strobe) {
+        assert (mIsAcquired);
+        if (!mIsAcquired) {
             Log.wtf(TAG, "toggling with NULL camera!");
             return false;
         }
 
         // check if the camera's flashlight supports torch mode
-        if (!supportsTorchMode()) {
+        if (mTorch == null) {
             // for now, bail early
             // XXX: there might be workarounds; use specialized ITorch classes in such cases
             Log.d(TAG, "This device does not support 'torch' mode");
             return false;
         }
 
-        // we've got a working torch-supported camera device now
-        mTorch = new DefaultTorch();
-
         boolean success = false;
 
-        if (!strobe) {
+        if (!on && mStrobeEngine != null) {
+            // whichever way we were asked to turn off, stop any ongoing strobe first
+            mStrobeEngine.stop();
+            if (mIsPulsing) {
+                Log.v(TAG, "Pulsed at a measured " + mStrobeEngine.getMeasuredDutyCycle()
+                        + "% duty cycle for " + mBrightness + "% brightness");
+                mIsPulsing = false;
+            }
+        }
+        if (!on && mAudioStrobe != null)
+            mAudioStrobe.stop();
+        if (!on)
+            mIsSendingMorse = false;
+        mDimmedTo = 0;
+
+        if (!strobe && on && mBrightness < 100) {
+            Log.v(TAG, "Turning on camera LED at " + mBrightness + "% brightness...");
+            success = turnOnDimmed();
+            if (success) {
+                postFlashlightState(on);
+            }
+        } else if (!strobe) {
             Log.v(TAG, "Turning " + (on ? "on" : "off") + " camera LED...");
-            success = mTorch.toggleTorch(mCamera, on);
+            success = toggleTorch(on);
             if (success) {
                 postFlashlightState(on);
             }
         } else {
             Log.v(TAG, "Turning " + (on ? "on" : "off") + " camera LED in strobing mode...");
-            // strobing mode: must spawn and track a separate thread to do the strobing
-            postFlashlightState(on);
-            if (on) {
-                mHandler.post(mStrober);
+            // strobing mode: the strobe engine does the strobing on its own thread
+            if (on && !(mIsMusicStrobe && startAudioStrobe())
+                    && !(mMorseMessage != null && startMorse())) {
+                getOrCreateStrobeEngine().play(mStrobePattern);
             }
+            postFlashlightState(on);
             success = true;
         }
 
         return success;
     }
 
+    private StrobeEngine getOrCreateStrobeEngine() {
+        if (mStrobeEngine == null) {
+            mStrobeEngine = new StrobeEngine(mStrobeLight, mWakeLock);
+            mStrobeEngine.setListener(mStrobeListener);
+        }
+        return mStrobeEngine;
+    }
+
+    private boolean startAudioStrobe() {
+        if (mAudioStrobe == null)
+            mAudioStrobe = new AudioStrobe(mStrobeLight, mWakeLock);
+        if (mAudioStrobe.start())
+            return true;
+        Log.w(TAG, "Cannot strobe to the music; playing the pattern instead");
+        return false;
+    }
+
+    private boolean startMorse() {
+        if (!MorseEncoder.canEncode(mMorseMessage)) {
+            Log.w(TAG, "Nothing in the message to send in Morse; playing the pattern instead");
+            return false;
+        }
+        MorseEncoder encoder = new MorseEncoder(mMorseMessage, mMorseWpm);
+        Log.v(TAG, "Sending " + mMorseMessage.length() + " character(s) in Morse at "
+                + encoder.getWpm() + " WPM");
+        mMorseTransmitter = new MorseTransmitter(encoder, mMorseRepeats);
+        getOrCreateStrobeEngine().play(mMorseTransmitter);
+        mIsSendingMorse = true;
+        return true;
+    }
+
+    /**
+     * Turn the LED on at mBrightness: at a lower strength level if the
+     * platform can do it, or by pulsing it from the strobe engine's thread.
+     */
+    private boolean turnOnDimmed() {
+        if (mTorch == mSystemTorch && mSystemTorch.canDim()) {
+            int percent = mSystemTorch.turnOnDimmed(mBrightness);
+            if (percent > 0) {
+                mDimmedTo = percent;
+                return true;
+            }
+            Log.w(TAG, "Cannot dim the system torch; turning it on fully");
+            return toggleTorch(true);
+        }
+
+        getOrCreateStrobeEngine().play(LightPattern.pwm(mBrightness));
+        mIsPulsing = true;
+        return true;
+    }
+
+    /**
+     * Print how long each camera operation has taken so far, and how often
+     * it failed or had to be retried with another strategy.
+     */
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "Camera " + mCameraId + ", torch: "
+                + (mTorch == null ? "none" : mTorch.getClass().getSimpleName()));
+        String inner = prefix + "  ";
+        mAcquireLatency.dump(pw, inner);
+        mPreviewLatency.dump(pw, inner);
+        mToggleLatency.dump(pw, inner);
+        mReleaseLatency.dump(pw, inner);
+        pw.println(inner + "failures: acquire=" + mAcquireFailures + " preview=" + mPreviewFailures
+                + " toggle=" + mToggleFailures);
+        pw.println(inner + "retries: system torch=" + mSystemTorchRetries
+                + " default torch=" + mDefaultTorchRetries);
+        pw.println(inner + "capabilities: strategy=" + mCapabilities.getStrategy(mCameraId)
+                + ", flash modes=" + Arrays.toString(mCapabilities.getSupportedFlashModes(mCameraId)));
+        pw.println(inner + "parameter round-trips avoided: " + mCachedTorch.getRoundTripsAvoided());
+        pw.println(inner + "brightness: " + mBrightness + "% set, " + getEffectiveBrightness()
+                + "% effective" + (mDimmedTo > 0 ? " (strength level)" : mIsPulsing ? " (pulsing)" : ""));
+        StrobeEngine engine = mStrobeEngine;
+        if (engine != null) {
+            pw.println(inner + "strobe: " + engine.getEdgeCount() + " edges, jitter last="
+                    + engine.getLastJitter() + " mean=" + engine.getMeanJitter()
+                    + " max=" + engine.getMaxJitter() + " (ms)");
+        }
+        MorseTransmitter morse = mMorseTransmitter;
+        if (morse != null)
+            morse.dump(pw, inner);
+        if (mWakeLock != null)
+            mWakeLock.dump(pw, inner);
+        AudioStrobe audioStrobe = mAudioStrobe;
+        if (audioStrobe != null)
+            audioStrobe.dump(pw, inner);
+    }
+
 }
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+/**
+ * The state WidgetUpdater shows, and the debounce in front of its updates,
+ * kept free of Android so that it can be tested on its own. The widgets
+ * and the Quick Settings tile both read getState(), which always has the
+ * latest state posted; take() hands over what the next update should push,
+ * once per burst of posts.
+ */
+class DebouncedState {
+
+    /**
+     * Runs the flush later; WidgetUpdater does so on the main looper.
+     */
+    interface Scheduler {
+
+        /**
+         * Have take() called after the given delay.
+         */
+        public void schedule(long delayMillis);
+
+        /**
+         * Drop the flush scheduled last, if it has not run yet.
+         */
+        public void cancel();
+
+    }
+
+    private final Scheduler mScheduler;
+    private final long mDebounceMillis;
+
+    private WidgetUpdater.State mState = WidgetUpdater.State.OFF;
+    private WidgetUpdater.State mPendingState;  // what the next flush pushes out, if any
+    private int mCoalescedCount;                // posts folded into a later one
+
+    DebouncedState(Scheduler scheduler, long debounceMillis) {
+        mScheduler = scheduler;
+        mDebounceMillis = debounceMillis;
+    }
+
+    /**
+     * @return the state shown, or about to be
+     */
+    WidgetUpdater.State getState() {
+        return mState;
+    }
+
+    /**
+     * Show the given state, shortly; a later call within the debounce
+     * window supersedes this one.
+     */
+    void post(WidgetUpdater.State state) {
+        if (mPendingState != null) {
+            mCoalescedCount++;
+            mScheduler.cancel();
+        }
+        mPendingState = state;
+        mState = state;
+        mScheduler.schedule(mDebounceMillis);
+    }
+
+    /**
+     * @return the state to push out now, or null if nothing is pending
+     */
+    WidgetUpdater.State take() {
+        WidgetUpdater.State state = mPendingState;
+        mPendingState = null;
+        return state;
+    }
+
+    int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+}
@@ -23,7 +23,6 @@
 
 package com.swijaya.galaxytorch;
 
-import android.hardware.Camera;
 import android.util.Log;
 
 public class DefaultTorch implements CameraDevice.Torch {
@@ -34,14 +33,14 @@ public class DefaultTorch implements CameraDevice.Torch {
      * Generally, the following simple steps should suffice to turn on the
      * flashlight's torch mode.
      */
-    public boolean toggleTorch(Camera camera, boolean on) {
-        setFlashMode(camera, (on ? Camera.Parameters.FLASH_MODE_TORCH : Camera.Parameters.FLASH_MODE_OFF));
+    public boolean toggleTorch(TorchCamera camera, boolean on) {
+        setFlashMode(camera, (on ? TorchCamera.FLASH_MODE_TORCH : TorchCamera.FLASH_MODE_OFF));
         return true;
     }
 
-    private void setFlashMode(Camera camera, String mode) {
+    private void setFlashMode(TorchCamera camera, String mode) {
         //Log.v(TAG, "Setting flash mode: " + mode);
-        Camera.Parameters params = camera.getParameters();
+        TorchCamera.Parameters params = camera.getParameters();
         params.setFlashMode(mode);
         camera.setParameters(params);
     }
@@ -25,10 +25,8 @@ package com.swijaya.galaxytorch;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.Menu;
@@ -41,32 +39,23 @@ import android.view.WindowManager;
 import android.widget.ImageButton;
 import android.widget.Toast;
 
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
 public class GalaxyTorchActivity extends Activity implements View.OnClickListener,
-        SurfaceHolder.Callback {
+        SurfaceHolder.Callback, TorchExecutor.Listener {
 
     private static final String TAG = GalaxyTorchActivity.class.getSimpleName();
     private static final float DIM_VALUE = 0.01f;
+    private static final long HANDOFF_GRACE_MILLIS = 2000;     // for the service to adopt a lit torch
 
     private SurfaceView mCameraPreview; // should be hidden
     private ImageButton mToggleButton;
 
-    private CameraDevice mCameraDevice; // helper object to acquire and control
-                                        // the camera
+    private TorchExecutor mTorchExecutor;   // helper object to acquire and control
+                                            // the camera off the main thread
     private SurfaceHolder mHolder;      // the currently ACTIVE SurfaceHolder
 
-    // variables to hold preference values
-    private boolean mOnAtActivityStart; // whether we turn on the flashlight at activity start
-    private boolean mDimScreen;			// whether we dim the screen when the flashlight is on
-    private boolean mUseVolumeRocker;   // whether we use the volume rocker key event as flashlight toggle
-    private boolean mStrobe;            // whether the switch toggles strobe flashlight
-    private boolean mUseBritishSwitch;	// whether we use the "British switch" modality for our button's sprite
-
-    private final Lock mSurfaceLock = new ReentrantLock();
-    private final Condition mSurfaceHolderIsSet = mSurfaceLock.newCondition();
+    private TorchPreferences mPrefs;    // the preferences as of our last onStart()
+    private boolean mHoldsCamera;       // whether we have a share of the camera
+    private MorseTransmitter mReportedMorse;    // whose speed we told the user last
 
     /* *** BEGIN MAIN ACTIVITY'S LIFE CYCLE CALLBACKS *** */
 
@@ -74,17 +63,27 @@ public class GalaxyTorchActivity extends Activity implements View.OnClickListene
     @SuppressWarnings("deprecation")
 	@Override
     public void onCreate(Bundle savedInstanceState) {
+        long startTime = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
 
+        // share the torch with the widget service; see onPause()
+        mTorchExecutor = TorchExecutor.borrow(this);
+        mTorchExecutor.addListener(this);
+
+        // opening the camera is slow, so have the executor start on it now,
+        // while we inflate the layout; the two meet in surfaceCreated()
+        mTorchExecutor.markLaunch(TAG, startTime);
+        mTorchExecutor.acquireCamera(this);
+        mHoldsCamera = true;
+
         setContentView(R.layout.main);
 
         mToggleButton = (ImageButton) findViewById(R.id.pressbutton);
-        mToggleButton.setImageResource(mUseBritishSwitch ? R.drawable.switch_button_british : R.drawable.switch_button);
+        // its sprite modality is set in onStart(), once we have the preferences
         
         mToggleButton.setOnClickListener(this);
         mToggleButton.setEnabled(false);
 
-        mCameraDevice = new CameraDevice();
         mCameraPreview = (SurfaceView) findViewById(R.id.camerapreview);
 
         // install a callback so we get notified when the underlying
@@ -96,6 +95,8 @@ public class GalaxyTorchActivity extends Activity implements View.OnClickListene
             Toast toast = Toast.makeText(getApplicationContext(),
                     R.string.err_cannot_acquire, Toast.LENGTH_SHORT);
             toast.show();
+            mTorchExecutor.releaseCamera();
+            mHoldsCamera = false;
             finish();
         }
 
@@ -115,13 +116,9 @@ public class GalaxyTorchActivity extends Activity implements View.OnClickListene
         super.onDestroy();
         Log.v(TAG, "onDestroy");
 
-        if (mCameraDevice.isFlashlightOn()) {
-            if (!mCameraDevice.toggleCameraLED(false, false)) {
-                Log.e(TAG, "Cannot toggle camera LED");
-            }
-        }
-        // mCameraDevice.stopPreview(); // handled in surface callback
-        mCameraDevice.releaseCamera();
+        // the camera goes with the last borrower, be it us or the service
+        mTorchExecutor.removeListener(this);
+        mTorchExecutor.giveBack();
         mToggleButton.setSelected(false);
     }
 
@@ -130,177 +127,117 @@ public class GalaxyTorchActivity extends Activity implements View.OnClickListene
         // the visible timeline starts here
         super.onStart();
         Log.v(TAG, "onStart");
-
-        loadPreferences();
+        TorchTrace.begin(TorchTrace.ACTIVITY_START);
+
+        // parsed off the main thread, and kept current, by TorchPreferences
+        mPrefs = TorchPreferences.get(this);
+        mTorchExecutor.setStrobePattern(mPrefs.getStrobePattern());
+        mTorchExecutor.setMusicStrobe(mPrefs.isMusicStrobe());
+        // read the clipboard now, while we are in focus and may
+        mTorchExecutor.setMorseMessage(mPrefs.getMorseMessage(this), mPrefs.getMorseWpm(),
+                mPrefs.getMorseRepeats());
+        mTorchExecutor.setBrightness(mPrefs.getBrightness());
         
         // user might have changed the button's sprite modality
-        mToggleButton.setImageResource(mUseBritishSwitch ? R.drawable.switch_button_british : R.drawable.switch_button);
+        mToggleButton.setImageResource(mPrefs.isUseBritishSwitch() ? R.drawable.switch_button_british : R.drawable.switch_button);
 
         // when we get there from onPause(), the camera would have been released and
         // now re-acquired, but that means the camera has now no surface holder
         // to flush to! so remember the state of the surface holder, and reset
-        // it immediately after re-acquiring
-        if (!mCameraDevice.acquireCamera()) {
-            // bail fast if we cannot acquire the camera device to begin with
-            // perhaps the widget (and therefore the service) is holding it,
-            // or some other background service outside of our control
-            Log.e(TAG, "Cannot acquire camera. Closing activity.");
-            Toast toast = Toast.makeText(getApplicationContext(),
-                    R.string.err_cannot_acquire, Toast.LENGTH_SHORT);
-            toast.show();
-            finish();
+        // it immediately after re-acquiring (the executor does both in order,
+        // and tells us through onCameraAcquired() if we cannot acquire it)
+        if (!mHoldsCamera) {
+            mTorchExecutor.acquireCamera(this);
+            mHoldsCamera = true;
         }
+        // the service may have kept the torch lit while we were away
+        mToggleButton.setSelected(mTorchExecutor.isTorchOn());
         if (mHolder != null) {
-            mCameraDevice.setPreviewDisplayAndStartPreview(mHolder);
+            mTorchExecutor.setPreviewDisplay(mHolder);
         }
 
-        if (mOnAtActivityStart) {
+        if (mPrefs.isOnAtStart()) {
             Log.v(TAG, "Turning flashlight on at activity start...");
-            new TorchToggleTask().execute(false, true);
+            mTorchExecutor.submit(TorchExecutor.Command.ON, TorchExecutor.Trigger.START);
         }
+        TorchTrace.end(TorchTrace.ACTIVITY_START);
     }
 
-    private void loadPreferences() {
-        PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
-        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(this);
-        mOnAtActivityStart = pref.getBoolean("onstart", false);
-        Log.v(TAG, "Turn flashlight on at activity start? " + mOnAtActivityStart);
-        mDimScreen = pref.getBoolean("dimscreen", true);
-        Log.v(TAG, "Dim the screen when the flashlight is on? " + mDimScreen);
-        mUseVolumeRocker = pref.getBoolean("userocker", false);
-        Log.v(TAG, "Use volume rocker as flashlight toggle? " + mUseVolumeRocker);
-        mStrobe = pref.getBoolean("strobe", false);
-        Log.v(TAG, "Switch toggles strobe mode? " + mStrobe);
-        mUseBritishSwitch = pref.getBoolean("usebritswitch", false);
-        Log.v(TAG, "Use \"British switch\" modality for button sprite? " + mUseBritishSwitch);
-    }
-
-    /**
-     * A background task worker to toggle the torch on. We have to resort to
-     * using AsyncTask because onCreate() -> onStart() and
-     * SurfaceHolder.Callback for the creation of the preview surface defined in
-     * the former are all done within a single thread. As it happens, the
-     * service's two life cycle callbacks are most likely to be called first
-     * before the SurfaceHolder's. This means that when it comes time to toggle
-     * the camera's LED within onStart(), the surface won't be ready. Putting
-     * locks around the surface holder won't work without moving the one task in
-     * a separate thread. Hence, this AsyncTask definition. When calling
-     * execute() on this task, you can either provide zero or one Boolean
-     * argument. The former will toggle the flashlight to the opposite state,
-     * while the latter asserts a specific state to toggle into.
-     * 
-     * @author santa
-     */
-    private class TorchToggleTask extends AsyncTask<Boolean, Void, Boolean> {
-
-        // XXX: This is almost identical to its implementation in
-        // GalaxyTorchService. Might want to refactor to consolidate.
+    /* *** BEGIN TORCH EXECUTOR CALLBACKS *** */
 
-        private boolean mWasTorchOn;
+    public void onCameraAcquired(boolean success) {
+        if (success)
+            return;
 
-        @Override
-        protected void onPreExecute() {
-            Log.v(TAG, "onPreExecute");
-            mWasTorchOn = mCameraDevice.isFlashlightOn();
-            Log.v(TAG, "Current torch state: " + (mWasTorchOn ? "on" : "off"));
-
-            if (mWasTorchOn ^ mToggleButton.isSelected()) {
-                assert (false);
-                Log.wtf(TAG, "Button state does not match device state!");
-            }
+        // bail fast if we cannot acquire the camera device to begin with
+        // perhaps the widget (and therefore the service) is holding it,
+        // or some other background service outside of our control
+        Log.e(TAG, "Cannot acquire camera. Closing activity.");
+        Toast toast = Toast.makeText(getApplicationContext(),
+                R.string.err_cannot_acquire, Toast.LENGTH_SHORT);
+        toast.show();
+        finish();
+    }
 
-            mToggleButton.setEnabled(false);
+    public void onCameraLost() {
+        // another app took the camera; we take it back in the next onStart()
+        Log.w(TAG, "Camera lost");
+        if (mHoldsCamera) {
+            mTorchExecutor.releaseCamera();
+            mHoldsCamera = false;
         }
+    }
 
-        @Override
-        protected Boolean doInBackground(Boolean... params) {
-            Log.v(TAG, "doInBackground");
-
-            if (mHolder == null) {
-                Log.i(TAG, "Waiting for surface holder to be created...");
-                mSurfaceLock.lock();
-                try {
-                    while (mHolder == null) {
-                        mSurfaceHolderIsSet.await();
-                    }
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "InterruptedException: " + e.getLocalizedMessage());
-                    return false;
-                } finally {
-                    mSurfaceLock.unlock();
-                }
-            }
-
-            // collect parameters
-            boolean toggle = !mWasTorchOn;
-            boolean strobe = false;
-            assert (params.length <= 2);
-            if (params.length > 2) {
-                Log.wtf(TAG, "Invalid parameters length");
-                return false;
-            } else {
-                // the first parameter (if any) is strobing mode
-                if (params.length >= 1) {
-                    strobe = params[0];
-                }
-
-                // the second parameter is the toggle state requested
-                if (params.length == 2) {
-                    toggle = params[1];
-                    // sanity check
-                    if (!(toggle ^ mWasTorchOn)) {
-                        Log.wtf(TAG, "Toggling the same state: " + (toggle ? "on" : "off"));
-                        return false;
-                    }
-                }
-            }
-
-            // actually toggle the LED (in torch mode)
-            return mCameraDevice.toggleCameraLED(toggle, strobe);
+    public void onTorchStateChanged(boolean success, boolean isTorchOn) {
+        Log.v(TAG, "onTorchStateChanged: " + success + ", torch is " + (isTorchOn ? "on" : "off"));
+        if (!success) {
+            Log.e(TAG, "Cannot toggle camera LED");
+            Toast toast = Toast.makeText(getApplicationContext(),
+                    R.string.err_cannot_toggle,
+                    Toast.LENGTH_LONG);
+            toast.show();
+            // TODO: maybe try another strategy?
         }
 
-        @Override
-        protected void onPostExecute(Boolean result) {
-            Log.v(TAG, "onPostExecute: " + result.toString());
-            if (!result) {
-                Log.e(TAG, "Cannot toggle camera LED");
-            }
-
-            // sanity check
-            boolean isTorchOn = mCameraDevice.isFlashlightOn();
-            Log.v(TAG, "Current torch state should be " + (mWasTorchOn ? "off" : "on")
-                    + " and it is " + (isTorchOn ? "on" : "off"));
-            assert (isTorchOn == !mWasTorchOn);
-            if (isTorchOn == mWasTorchOn) {
-                Log.e(TAG, "Current torch state after toggle did not change");
-                Toast toast = Toast.makeText(getApplicationContext(),
-                        R.string.err_cannot_toggle,
-                        Toast.LENGTH_LONG);
-                toast.show();
-                // TODO: maybe try another strategy?
-            }
-
-            mToggleButton.setSelected(isTorchOn);
-            mToggleButton.setEnabled(true);
-            
-            if (!mDimScreen)
-            	return;
-            
-            // adjust brightness if the flashlight is ON
-            float brightness;
-            WindowManager.LayoutParams lp = getWindow().getAttributes();
-            if (isTorchOn) {
-            	// this will lock the screen!
-            	//brightness = WindowManager.LayoutParams.BRIGHTNESS_OVERRIDE_OFF;
-            	brightness = DIM_VALUE;
-            } else {
-            	brightness = WindowManager.LayoutParams.BRIGHTNESS_OVERRIDE_NONE;
-            }
-            Log.v(TAG, "Setting screen brightness to " + brightness);
-            lp.screenBrightness = brightness;
-            getWindow().setAttributes(lp);
+        mToggleButton.setSelected(isTorchOn);
+        if (!isTorchOn)
+            reportMorseSpeed();
+        // keep the widgets and the tile in step with our switch
+        WidgetUpdater.get(this).post(isTorchOn ? WidgetUpdater.State.ON : WidgetUpdater.State.OFF);
+
+        if (mPrefs == null || !mPrefs.isDimScreen())
+        	return;
+
+        // adjust brightness if the flashlight is ON
+        float brightness;
+        WindowManager.LayoutParams lp = getWindow().getAttributes();
+        if (isTorchOn) {
+        	// this will lock the screen!
+        	//brightness = WindowManager.LayoutParams.BRIGHTNESS_OVERRIDE_OFF;
+        	brightness = DIM_VALUE;
+        } else {
+        	brightness = WindowManager.LayoutParams.BRIGHTNESS_OVERRIDE_NONE;
         }
+        Log.v(TAG, "Setting screen brightness to " + brightness);
+        lp.screenBrightness = brightness;
+        getWindow().setAttributes(lp);
+    }
 
+    /* *** END TORCH EXECUTOR CALLBACKS *** */
+
+    /**
+     * Tell the user how fast the Morse message that just ended (whether
+     * sent in full or cut short) actually went out, once per message.
+     */
+    private void reportMorseSpeed() {
+        MorseTransmitter morse = mTorchExecutor.getMorseTransmitter();
+        if (morse == null || morse == mReportedMorse || morse.getMeasuredWpm() == 0)
+            return;
+        mReportedMorse = morse;
+        Log.v(TAG, "Morse sent at a measured " + morse.getMeasuredWpm() + " WPM");
+        Toast.makeText(getApplicationContext(),
+                getString(R.string.morse_sent, morse.getMeasuredWpm(), morse.getWpm()),
+                Toast.LENGTH_SHORT).show();
     }
 
     @Override
@@ -309,15 +246,19 @@ public class GalaxyTorchActivity extends Activity implements View.OnClickListene
         super.onPause();
         Log.v(TAG, "onPause");
 
-        // turn off the torch if it is on
-        if (mCameraDevice.isFlashlightOn()) {
-            if (!mCameraDevice.toggleCameraLED(false, false)) {
-                Log.e(TAG, "Cannot toggle camera LED");
-                return;
+        // turn off the torch if it is on, unless the service takes it over
+        if (mTorchExecutor.isTorchOn()) {
+            if (mPrefs.isHandOff()) {
+                Log.v(TAG, "Handing the lit torch over to the service...");
+                Intent intent = new Intent(getApplicationContext(), GalaxyTorchService.class);
+                intent.setAction(GalaxyTorchService.ACTION_ADOPT);
+                startService(intent);
+            } else {
+                mTorchExecutor.submit(TorchExecutor.Command.OFF, TorchExecutor.Trigger.LEAVE);
+                mToggleButton.setSelected(false);
             }
-            mToggleButton.setSelected(false);
             
-            if (mDimScreen) {
+            if (mPrefs.isDimScreen()) {
             	WindowManager.LayoutParams lp = getWindow().getAttributes();
             	Log.v(TAG, "Setting screen brightness to " + WindowManager.LayoutParams.BRIGHTNESS_OVERRIDE_NONE);
             	lp.screenBrightness = WindowManager.LayoutParams.BRIGHTNESS_OVERRIDE_NONE;
@@ -332,17 +273,26 @@ public class GalaxyTorchActivity extends Activity implements View.OnClickListene
         super.onStop();
         Log.v(TAG, "onStop");
 
-        // mCameraDevice.stopPreview();
+        // mTorchExecutor.clearPreviewDisplay();
         // don't stop preview too early; releaseCamera() does it anyway and
         // it might need the preview to toggle the torch OFF cleanly
-        mCameraDevice.releaseCamera();
+        // keep the camera (and its preview) warm for a while, in case the
+        // user is only switching away briefly; if the service is about to
+        // adopt a lit torch, keep it at least until it has had the chance to
+        long graceMillis = mPrefs.getRetention() * 1000L;
+        if (mPrefs.isHandOff() && mTorchExecutor.isTorchOn())
+            graceMillis = Math.max(graceMillis, HANDOFF_GRACE_MILLIS);
+        mTorchExecutor.releaseCameraLater(graceMillis);
+        mHoldsCamera = false;
     }
 
     /* *** END MAIN ACTIVITY'S LIFE CYCLE CALLBACK *** */
 
     public void onClick(View v) {
         Log.v(TAG, "onClick");
-        new TorchToggleTask().execute(mStrobe);
+        TorchTrace.mark(TorchTrace.CLICK, 0);
+        mTorchExecutor.submit(mPrefs.isStrobe() ? TorchExecutor.Command.STROBE : TorchExecutor.Command.TOGGLE,
+                TorchExecutor.Trigger.BUTTON);
     }
 
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
@@ -351,20 +301,14 @@ public class GalaxyTorchActivity extends Activity implements View.OnClickListene
 
     public void surfaceCreated(SurfaceHolder holder) {
         Log.v(TAG, "surfaceCreated");
-        // atomically set the surface holder and start camera preview
-        mSurfaceLock.lock();
-        try {
-            mHolder = holder;
-            mCameraDevice.setPreviewDisplayAndStartPreview(mHolder);
-            mSurfaceHolderIsSet.signalAll();
-        } finally {
-            mSurfaceLock.unlock();
-        }
+        // start camera preview; any toggle waiting on it proceeds afterwards
+        mHolder = holder;
+        mTorchExecutor.setPreviewDisplay(mHolder);
     }
 
     public void surfaceDestroyed(SurfaceHolder holder) {
         Log.v(TAG, "surfaceDestroyed");
-        mCameraDevice.stopPreview();
+        mTorchExecutor.clearPreviewDisplay();
         mHolder = null;
     }
 
@@ -389,7 +333,7 @@ public class GalaxyTorchActivity extends Activity implements View.OnClickListene
 
 	@Override
 	public boolean dispatchKeyEvent(KeyEvent event) {
-		if (!mUseVolumeRocker)
+		if (mPrefs == null || !mPrefs.isUseVolumeRocker())
 			return super.dispatchKeyEvent(event);
 		
 		int action = event.getAction();
@@ -400,7 +344,7 @@ public class GalaxyTorchActivity extends Activity implements View.OnClickListene
 		case KeyEvent.KEYCODE_VOLUME_DOWN:
 			if (action == KeyEvent.ACTION_UP) {
 				Log.v(TAG, "Handling volume rocker key event.");
-				new TorchToggleTask().execute();
+				mTorchExecutor.submit(TorchExecutor.Command.TOGGLE, TorchExecutor.Trigger.ROCKER);
 			}
 			return true;
 		default:
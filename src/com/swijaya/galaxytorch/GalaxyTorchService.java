@@ -23,20 +23,18 @@
 
 package com.swijaya.galaxytorch;
 
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
-import android.appwidget.AppWidgetManager;
-import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.PixelFormat;
-import android.os.AsyncTask;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.LayoutInflater;
@@ -44,79 +42,71 @@ import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.WindowManager;
 import android.widget.LinearLayout;
-import android.widget.RemoteViews;
 import android.widget.Toast;
 
-public class GalaxyTorchService extends Service {
+public class GalaxyTorchService extends Service implements TorchExecutor.Listener {
 
     private static final String TAG = GalaxyTorchService.class.getSimpleName();
 
-    private CameraDevice mCameraDevice;
+    /** Take over a torch the activity lit, rather than toggling it. */
+    public static final String ACTION_ADOPT = "com.swijaya.galaxytorch.action.ADOPT";
 
-    private LinearLayout mOverlay;
-    private SurfaceView mSurfaceView;
-    private SurfaceHolder mHolder;
+    /** When the widget was tapped (uptime), for measuring tap-to-light latency. */
+    public static final String EXTRA_TAP_TIME = "com.swijaya.galaxytorch.extra.TAP_TIME";
 
-    private final Lock mSurfaceLock = new ReentrantLock();
-    private final Condition mSurfaceHolderIsSet = mSurfaceLock.newCondition();
+    /** What the toggle came from (a TorchExecutor.Trigger), for the journal; a widget if absent. */
+    public static final String EXTRA_TRIGGER = "com.swijaya.galaxytorch.extra.TRIGGER";
 
-    private static final int ONGOING_NOTIFICATION = 1;
-
-    private enum WidgetState {
-        OFF     (R.drawable.widget_light),
-        ON      (R.drawable.wg_light_on),
-        FOCUS   (R.drawable.wg_light_focus);
-
-        /**
-         * The drawable resource associated with this widget state.
-         */
-        private final int mDrawRes;
+    private TorchExecutor mTorchExecutor;
+    private TorchRemote mRemote;        // serves bound clients; see TorchRemote
+    private boolean mIsStarted;         // whether we were started, and not stopped since
+    private boolean mIsStandingBy;      // whether we keep the camera ready with the torch off
 
-        private WidgetState(int drawRes) {
-            mDrawRes = drawRes;
+    private final Handler mHandler = new Handler();
+    private final Runnable mStandbyOver = new Runnable() {
+        @Override
+        public void run() {
+            Log.v(TAG, "Standby is over");
+            stop();
         }
+    };
 
-        public int getDrawable() {
-            return mDrawRes;
-        }
-    }
+    private LinearLayout mOverlay;      // the overlay holding the preview surface, where
+    private SurfaceView mSurfaceView;   // an offscreen preview is not possible
 
-    private RemoteViews createWidgetWithState(WidgetState state) {
-        Context ctx = getApplicationContext();
-        RemoteViews widgetViews =
-                new RemoteViews(ctx.getPackageName(), R.layout.widget);
-        widgetViews.setImageViewResource(R.id.widgetbutton, state.getDrawable());
-        switch (state) {
-        case OFF:
-        case ON:
-            Log.v(TAG, "Renewing pending intent for widget");
-            // refresh the button's onClick pending intent
-            // create an intent to launch GalaxyTorchWidgetHelperActivity
-            Intent intent = new Intent(ctx, GalaxyTorchService.class);
-            //intent.setAction(TORCH_TOGGLE_ACTION);
-            PendingIntent pendingIntent = PendingIntent.getService(ctx, 0, intent, 0);
-            widgetViews.setOnClickPendingIntent(R.id.widgetbutton, pendingIntent);
-            break;
-        default:
-        	// FOCUS; do nothing
-        	break;
-        }
+    private WidgetUpdater mWidgetUpdater;
+    private long mTapTime;              // of the toggle in flight, if any
 
-        return widgetViews;
-    }
+    private static final int ONGOING_NOTIFICATION = 1;
 
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return mRemote.getBinder();
     }
 
     /**
-     * This callback implementations should be called from a thread separate to
-     * the task that needs to be done in onStart().
-     * 
-     * The reason is that the service's life cycle callback onStart() will need
-     * to wait for the surface holder to be created, and these callbacks also
-     * happen to be called by the system on the same GUI thread as the service's.
+     * Shows up in "adb shell dumpsys activity service GalaxyTorchService",
+     * release builds included.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        TorchExecutor executor = mTorchExecutor;
+        if (executor == null) {
+            writer.println("No torch executor");
+            return;
+        }
+        if (args != null && args.length > 0 && "journal".equals(args[0])) {
+            executor.dumpJournal(writer, "");
+            return;
+        }
+        executor.dump(writer, "");
+        mRemote.dump(writer, "");
+    }
+
+    /**
+     * Hands the overlay's surface to the torch executor once it is created.
+     * Toggles submitted before then simply wait on the executor's worker
+     * thread, so nothing here (or in onStartCommand()) needs to block.
      * 
      * @author santa
      *
@@ -125,25 +115,19 @@ public class GalaxyTorchService extends Service {
 
         public void surfaceDestroyed(SurfaceHolder holder) {
             Log.v(TAG, "(overlay) surfaceDestroyed");
+            if (mTorchExecutor != null) {
+                mTorchExecutor.clearPreviewDisplay();
+            }
         }
 
         public void surfaceCreated(SurfaceHolder holder) {
             Log.v(TAG, "(overlay) surfaceCreated");
-            if (mCameraDevice == null) {
-                Log.w(TAG, "surfaceCreated: Camera device has not been instantiated");
+            if (mTorchExecutor == null) {
+                Log.w(TAG, "surfaceCreated: Torch executor has not been instantiated");
                 return;
             }
 
-            // atomically set the surface holder and start camera preview
-            mSurfaceLock.lock();
-            try {
-                mHolder = holder;
-                mCameraDevice.setPreviewDisplayAndStartPreview(holder);
-                mSurfaceHolderIsSet.signalAll();
-            }
-            finally {
-                mSurfaceLock.unlock();
-            }
+            mTorchExecutor.setPreviewDisplay(holder);
         }
 
         public void surfaceChanged(SurfaceHolder holder, int format, int width,
@@ -153,15 +137,48 @@ public class GalaxyTorchService extends Service {
 
     }
 
-    @SuppressWarnings("deprecation")
-	@Override
+    @Override
     public void onCreate() {
+        long startTime = SystemClock.uptimeMillis();
         super.onCreate();
         Log.v(TAG, "onCreate: service starting");
+        TorchTrace.begin(TorchTrace.SERVICE_START);
+
+        mWidgetUpdater = WidgetUpdater.get(this);
+
+        // share the torch with the activity, if it is around
+        mTorchExecutor = TorchExecutor.borrow(this);
+        mTorchExecutor.addListener(this);
+        // preview into an offscreen texture where possible; see onCameraAcquired()
+        mTorchExecutor.setOffscreenPreview(true);
+        TorchPreferences prefs = TorchPreferences.get(this);
+        mTorchExecutor.setBrightness(prefs.getBrightness());
+        mTorchExecutor.setStrobePattern(prefs.getStrobePattern());
+        mTorchExecutor.setMusicStrobe(prefs.isMusicStrobe());
+        // the clipboard is out of reach on 10+ unless we are in focus, so
+        // keep any message the activity has read from it
+        CharSequence message = prefs.getMorseMessage(this);
+        if (message != null || !prefs.isMorse())
+            mTorchExecutor.setMorseMessage(message, prefs.getMorseWpm(), prefs.getMorseRepeats());
+        mTorchExecutor.markLaunch(TAG, startTime);
+        mTorchExecutor.acquireCamera(this);
+        mRemote = new TorchRemote(mTorchExecutor);
+        TorchTrace.end(TorchTrace.SERVICE_START);
+    }
 
-        mCameraDevice = new CameraDevice();
-        mCameraDevice.acquireCamera();
+    @SuppressWarnings("deprecation")
+    public void onCameraAcquired(boolean success) {
+        if (!success) {
+            Log.e(TAG, "Cannot acquire camera");
+            return;     // the pending toggle will fail and report it
+        }
+        if (!mTorchExecutor.needsPreviewSurface() || mOverlay != null) {
+            // the platform switches the torch by itself, or the camera is
+            // already previewing offscreen; no overlay needed
+            return;
+        }
 
+        // fall back to an overlay window
         createOverlay();    // this gives us the surface view the camera device needs
         SurfaceHolder holder = mSurfaceView.getHolder();
         holder.addCallback(new SurfaceKeeper());
@@ -169,133 +186,152 @@ public class GalaxyTorchService extends Service {
         holder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        Log.v(TAG, "onDestroy: service destroyed");
-
-        if (mCameraDevice.isFlashlightOn()) {
-            Log.w(TAG, "Flashlight still on");
-            if (!mCameraDevice.toggleCameraLED(false, false)) {
-                Log.e(TAG, "Cannot toggle camera LED");
-            }
+    public void onTorchStateChanged(boolean success, boolean isTorchOn) {
+        Log.v(TAG, "onTorchStateChanged: " + success + ", torch is " + (isTorchOn ? "on" : "off"));
+        if (!success) {
+            Log.e(TAG, "Cannot toggle camera LED");
+            Toast toast = Toast.makeText(getApplicationContext(),
+                    R.string.err_cannot_toggle,
+                    Toast.LENGTH_LONG);
+            toast.setGravity(Gravity.CENTER_VERTICAL, 0, 0);
+            toast.show();
+            // TODO: maybe try another strategy?
         }
-        //mCameraDevice.stopPreview();  // handled in surface callback
-        mCameraDevice.releaseCamera();
-        mCameraDevice = null;
-
-        // remove the overlay
-        WindowManager wm = (WindowManager) getSystemService(WINDOW_SERVICE);
-        wm.removeView(mOverlay);
-        mOverlay = null;
-        mSurfaceView = null;
-    }
 
-    /**
-     * A background task worker to toggle the torch on.
-     * 
-     * We have to resort to using AsyncTask because onCreate() -> onStart()
-     * and SurfaceHolder.Callback for the creation of the preview surface
-     * defined in the former are all done within a single thread.
-     * 
-     * As it happens, the service's two life cycle callbacks are most likely
-     * to be called first before the SurfaceHolder's. This means that when
-     * it comes time to toggle the camera's LED within onStart(), the surface
-     * won't be ready. Putting locks around the surface holder won't work
-     * without moving the one task in a separate thread. Hence, this
-     * AsyncTask definition.
-     * 
-     * @author santa
-     *
-     */
-    private class TorchToggleTask extends AsyncTask<Void, Void, Boolean> {
+        if (mTapTime != 0) {
+            GalaxyTorchWidgetProvider.logTapLatency("service", mTapTime, isTorchOn);
+            mTapTime = 0;
+        }
 
-        private boolean mWasTorchOn;
+        // set widget button(s) image to its appropriate state (drawable)
+        mWidgetUpdater.post(isTorchOn ? WidgetUpdater.State.ON : WidgetUpdater.State.OFF);
+        mRemote.onTorchStateChanged(success, isTorchOn);
+
+        if (isTorchOn && !mIsStarted) {
+            // lit by a bound client; stay around (and in the foreground)
+            // after it unbinds, as we would for a widget tap
+            Intent intent = new Intent(this, GalaxyTorchService.class);
+            intent.setAction(ACTION_ADOPT);
+            startService(intent);
+            return;
+        }
 
-        private AppWidgetManager mAppWidgetManager;
-        private ComponentName mThisWidget;
+        if (isTorchOn) {
+            Log.v(TAG, "We toggled on. Creating an ongoing notification and start foreground service.");
+            // we've turned on the torch; bring the service to foreground and
+            // and notify user
+            startForeground(ONGOING_NOTIFICATION, createToggleNotification());
+        } else {
+            int standby = TorchPreferences.get(this).getStandby();
+            if (mIsStarted && standby > 0) {
+                // keep the camera (and overlay) ready, so that a tap soon
+                // after lights the torch without acquiring anything
+                Log.v(TAG, "We toggled off. Standing by for " + standby + " s...");
+                stopForeground(true);
+                mIsStandingBy = true;
+                mHandler.removeCallbacks(mStandbyOver);
+                mHandler.postDelayed(mStandbyOver, standby * 1000L);
+                return;
+            }
+            // after toggling off, kill this service
+            Log.v(TAG, "We toggled off. Stopping service...");
+            stop();
+        }
+    }
 
-        @Override
-        protected void onPreExecute() {
-            Log.v(TAG, "onPreExecute");
-            mWasTorchOn = mCameraDevice.isFlashlightOn();
-            Log.v(TAG, "Current torch state: " + (mWasTorchOn ? "on" : "off"));
-
-            // set widget background(s) to its focused state (drawable)
-            mAppWidgetManager = AppWidgetManager.getInstance(getApplicationContext());
-            mThisWidget = new ComponentName(getApplicationContext(),
-                    GalaxyTorchWidgetProvider.class);
-            RemoteViews widget = createWidgetWithState(WidgetState.FOCUS);
-            mAppWidgetManager.updateAppWidget(mThisWidget, widget);
+    public void onCameraLost() {
+        // another app needs the camera; standing by is pointless now
+        if (mIsStandingBy) {
+            Log.v(TAG, "Camera lost while standing by");
+            stop();
         }
+    }
 
-        @Override
-        protected Boolean doInBackground(Void... params) {
-            Log.v(TAG, "doInBackground");
-            mSurfaceLock.lock();
-            try {
-                while (mHolder == null) {
-                    mSurfaceHolderIsSet.await();
-                }
-            }
-            catch (InterruptedException e) {
-                Log.e(TAG, "InterruptedException: " + e.getLocalizedMessage());
-                return false;
-            }
-            finally {
-                mSurfaceLock.unlock();
-            }
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mIsStandingBy && level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) {
+            Log.v(TAG, "Memory is getting low (" + level + "); ending standby");
+            stop();
+        }
+    }
 
-            // actually toggle the LED (in torch mode)
-            return mCameraDevice.toggleCameraLED(!mWasTorchOn, false);
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if (mIsStandingBy) {
+            Log.v(TAG, "Memory is low; ending standby");
+            stop();
         }
+    }
 
-        @Override
-        protected void onPostExecute(Boolean result) {
-            Log.v(TAG, "onPostExecute: " + result.toString());
-            if (!result) {
-                Log.e(TAG, "Cannot toggle camera LED");
-            }
+    private void stop() {
+        mHandler.removeCallbacks(mStandbyOver);
+        mIsStandingBy = false;
+        //stopForeground(true); // stopSelf() would also remove notification
+        stopSelf();     // a no-op for as long as clients stay bound
+        mIsStarted = false;
+    }
 
-            // sanity check
-            boolean isTorchOn = mCameraDevice.isFlashlightOn();
-            Log.v(TAG, "Current torch state should be " + (mWasTorchOn ? "off" : "on")
-                    + " and it is " + (isTorchOn ? "on" : "off"));
-            assert (isTorchOn == !mWasTorchOn);
-            if (isTorchOn == mWasTorchOn) {
-                Log.e(TAG, "Current torch state after toggle did not change");
-                Toast toast = Toast.makeText(getApplicationContext(),
-                        R.string.err_cannot_toggle,
-                        Toast.LENGTH_LONG);
-                toast.setGravity(Gravity.CENTER_VERTICAL, 0, 0);
-                toast.show();
-                // TODO: maybe try another strategy?
-            }
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        Log.v(TAG, "onDestroy: service destroyed");
 
-            // set widget button(s) image to its appropriate state (drawable)
-            RemoteViews widget = createWidgetWithState(
-                    isTorchOn ? WidgetState.ON : WidgetState.OFF);
-            mAppWidgetManager.updateAppWidget(mThisWidget, widget);
-
-            if (isTorchOn) {
-                Log.v(TAG, "We toggled on. Creating an ongoing notification and start foreground service.");
-                // we've turned on the torch; bring the service to foreground and
-                // and notify user
-                startForeground(ONGOING_NOTIFICATION, createToggleNotification());
-            } else {
-                // after toggling off, kill this service
-                Log.v(TAG, "We toggled off. Stopping service...");
-                //stopForeground(true); // stopSelf() would also remove notification
-                stopSelf();
-            }
+        if (mTorchExecutor.isTorchOn()) {
+            Log.w(TAG, "Flashlight still on");
         }
+        // turns off the torch and releases the camera, unless the activity
+        // still holds it
+        mHandler.removeCallbacks(mStandbyOver);
+        mRemote.cancel();
+        mTorchExecutor.removeListener(this);
+        mTorchExecutor.releaseCamera();
+        mTorchExecutor.giveBack();
+        mTorchExecutor = null;
 
+        // remove the overlay
+        if (mOverlay != null) {
+            WindowManager wm = (WindowManager) getSystemService(WINDOW_SERVICE);
+            wm.removeView(mOverlay);
+            mOverlay = null;
+            mSurfaceView = null;
+        }
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.v(TAG, "onStartCommand");
-        new TorchToggleTask().execute();
+        mIsStarted = true;
+        if (mIsStandingBy) {
+            // the camera is still held and previewing; nothing to set up
+            Log.v(TAG, "Woken from standby");
+            mHandler.removeCallbacks(mStandbyOver);
+            mIsStandingBy = false;
+        }
+
+        if (intent != null && ACTION_ADOPT.equals(intent.getAction())) {
+            // the activity left with the torch lit; keep it that way, from
+            // the foreground, until the user switches it off
+            Log.v(TAG, "Adopting the torch; it is " + (mTorchExecutor.isTorchOn() ? "on" : "off"));
+            onTorchStateChanged(true, mTorchExecutor.isTorchOn());
+            return super.onStartCommand(intent, flags, startId);
+        }
+
+        // set widget background(s) to its focused state (drawable) until the
+        // executor reports back through onTorchStateChanged()
+        mWidgetUpdater.post(WidgetUpdater.State.FOCUS);
+        TorchExecutor.Trigger trigger = TorchExecutor.Trigger.WIDGET;
+        if (intent != null) {
+            mTapTime = intent.getLongExtra(EXTRA_TAP_TIME, 0);
+            if (intent.hasExtra(EXTRA_TRIGGER))
+                trigger = (TorchExecutor.Trigger) intent.getSerializableExtra(EXTRA_TRIGGER);
+        }
+
+        // the strobe plays on the strobe engine's thread, under a wake lock
+        // of its own, so it keeps time in here with the screen off too
+        mTorchExecutor.submit(TorchPreferences.get(this).isStrobe()
+                ? TorchExecutor.Command.STROBE : TorchExecutor.Command.TOGGLE, trigger);
         return super.onStartCommand(intent, flags, startId);
     }
 
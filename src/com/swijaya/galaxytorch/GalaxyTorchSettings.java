@@ -24,15 +24,52 @@
 package com.swijaya.galaxytorch;
 
 import android.os.Bundle;
+import android.preference.Preference;
 import android.preference.PreferenceActivity;
+import android.util.Log;
+import android.widget.Toast;
 
 public class GalaxyTorchSettings extends PreferenceActivity {
 
+    private static final String TAG = GalaxyTorchSettings.class.getSimpleName();
+
+
     @SuppressWarnings("deprecation")
 	@Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         addPreferencesFromResource(R.xml.preferences);
+
+        // refuse custom patterns the sequencer cannot compile
+        findPreference("custompattern").setOnPreferenceChangeListener(
+                new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                try {
+                    LightPattern.custom((String) newValue);
+                    return true;
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Rejecting custom pattern: " + e.getLocalizedMessage());
+                    Toast.makeText(getApplicationContext(), R.string.err_invalid_pattern,
+                            Toast.LENGTH_SHORT).show();
+                    return false;
+                }
+            }
+        });
+
+        // an empty message is fine: it sends the clipboard
+        findPreference("morsetext").setOnPreferenceChangeListener(
+                new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                String message = (String) newValue;
+                if (message.trim().length() == 0 || MorseEncoder.canEncode(message))
+                    return true;
+                Toast.makeText(getApplicationContext(), R.string.err_invalid_morse,
+                        Toast.LENGTH_SHORT).show();
+                return false;
+            }
+        });
     }
 
 }
@@ -23,38 +23,22 @@
 
 package com.swijaya.galaxytorch;
 
-import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
-import android.appwidget.AppWidgetProviderInfo;
 import android.content.Context;
 import android.content.Intent;
-import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
-import android.widget.RemoteViews;
 
 public class GalaxyTorchWidgetProvider extends AppWidgetProvider {
 
     private static final String TAG = GalaxyTorchWidgetProvider.class.getSimpleName();
 
-    //public static final String TORCH_TOGGLE_ACTION = "com.swijaya.galaxytorch.toggle_action";
-    private static Boolean KEYGUARD_SUPPORTED = null;
+    /** Sent by a tap on any of our widgets, home screen and lock screen alike. */
+    public static final String ACTION_TOGGLE = "com.swijaya.galaxytorch.action.TOGGLE";
 
-    private static boolean isKeyguardWidget(AppWidgetManager manager, int widgetId) {
-        if (KEYGUARD_SUPPORTED != null && !KEYGUARD_SUPPORTED)
-            return false;
-
-        Bundle options;
-        try {
-            options = manager.getAppWidgetOptions(widgetId);
-        } catch (NoSuchMethodError e) {
-            KEYGUARD_SUPPORTED = false;
-            return false;
-        }
-
-        int category = options.getInt(AppWidgetManager.OPTION_APPWIDGET_HOST_CATEGORY, -1);
-        return category == AppWidgetProviderInfo.WIDGET_CATEGORY_KEYGUARD;
-    }
+    /** How long a tap on a widget or the tile may take to switch the torch. */
+    public static final long TAP_LATENCY_TARGET_MILLIS = 100;
 
     @Override
     public void onUpdate(Context context,
@@ -62,27 +46,159 @@ public class GalaxyTorchWidgetProvider extends AppWidgetProvider {
         super.onUpdate(context, appWidgetManager, appWidgetIds);
         Log.v(TAG, "onUpdate");
 
-        // register an event handler (for button click) in this callback
-        for (int id : appWidgetIds) {
-            if (isKeyguardWidget(appWidgetManager, id)) {
-                Log.v(TAG, "Keyguard widget update");
-                // TODO
+        // give all of them the (prebuilt) layout, with the button's event
+        // handler attached, in a single update; lock screen widgets get the
+        // same one, as a tap on them comes through onReceive() just the
+        // same and nothing there needs the device unlocked
+        WidgetUpdater.get(context).setUp(appWidgetIds);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!ACTION_TOGGLE.equals(intent.getAction())) {
+            super.onReceive(context, intent);
+            return;
+        }
+
+        Log.v(TAG, "Widget tapped");
+        toggle(context, SystemClock.uptimeMillis(), TorchExecutor.Trigger.WIDGET);
+    }
+
+    /**
+     * Toggle the torch for a tap on a widget or the Quick Settings tile:
+     * directly if the platform can switch it, or else through the service,
+     * which takes over the camera if the activity still holds it.
+     */
+    static void toggle(Context context, long tapTime, TorchExecutor.Trigger trigger) {
+        TorchTrace.begin(TorchTrace.WIDGET_TAP);
+        if (!FastToggle.toggle(context, tapTime, trigger)) {
+            // the camera has to be opened, and kept previewing, by a service
+            Intent service = new Intent(context, GalaxyTorchService.class);
+            service.putExtra(GalaxyTorchService.EXTRA_TAP_TIME, tapTime);
+            service.putExtra(GalaxyTorchService.EXTRA_TRIGGER, trigger);
+            context.startService(service);
+        }
+        TorchTrace.end(TorchTrace.WIDGET_TAP);
+    }
+
+    /**
+     * Log how long a tap took to switch the torch, and whether that was
+     * within TAP_LATENCY_TARGET_MILLIS.
+     */
+    static void logTapLatency(String via, long tapTime, boolean isTorchOn) {
+        long latency = SystemClock.uptimeMillis() - tapTime;
+        String message = "Tap to " + (isTorchOn ? "light" : "dark") + " (" + via + "): " + latency + " ms";
+        if (latency > TAP_LATENCY_TARGET_MILLIS)
+            Log.w(TAG, message + ", over the " + TAP_LATENCY_TARGET_MILLIS + " ms target");
+        else
+            Log.i(TAG, message);
+    }
+
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        super.onDeleted(context, appWidgetIds);
+        Log.v(TAG, "onDeleted");
+        WidgetUpdater.get(context).invalidate();
+    }
+
+    /**
+     * Toggles the torch right from the receiver where the platform can
+     * switch it by itself (API 23+): no service, no overlay, no camera.
+     *
+     * While the torch is lit, we hold a share of the process-wide executor
+     * so that the activity and the service see (and can switch off) the
+     * same torch. The platform switches the torch off should our process
+     * go away, so once the torch is confirmed lit (off the tap's critical
+     * path), the service adopts it and holds the session in the
+     * foreground; it stops itself again when the torch goes off.
+     */
+    private static class FastToggle implements TorchExecutor.Listener {
+
+        private static FastToggle sActive;  // holds the executor while the torch is lit
+
+        private final Context mContext;
+        private final TorchExecutor mTorchExecutor;
+        private long mTapTime;
+        private boolean mIsAdopted;         // whether the service holds the lit torch
+
+        /**
+         * @return whether the tap was handled; if not, the caller needs to
+         *         go through the service
+         */
+        static boolean toggle(Context context, long tapTime, TorchExecutor.Trigger trigger) {
+            FastToggle toggle = sActive;
+            if (toggle == null && TorchPreferences.get(context).isStrobe()) {
+                // a strobe outlasts this receiver; the foreground service hosts it
+                return false;
+            }
+            if (toggle == null) {
+                TorchExecutor executor = TorchExecutor.borrow(context);
+                if (!executor.canSwitchDirectly()) {
+                    executor.giveBack();
+                    return false;
+                }
+                toggle = new FastToggle(context.getApplicationContext(), executor);
+                sActive = toggle;
+            }
+            toggle.mTapTime = tapTime;
+            toggle.mTorchExecutor.setBrightness(TorchPreferences.get(context).getBrightness());
+            WidgetUpdater.get(context).post(WidgetUpdater.State.FOCUS);
+            toggle.mTorchExecutor.submit(TorchExecutor.Command.TOGGLE, trigger);
+            return true;
+        }
+
+        private FastToggle(Context context, TorchExecutor executor) {
+            mContext = context;
+            mTorchExecutor = executor;
+            mTorchExecutor.addListener(this);
+            mTorchExecutor.acquireCamera(this);
+        }
+
+        public void onCameraAcquired(boolean success) {
+            if (!success) {
+                Log.e(TAG, "Cannot acquire the system torch");
+                return;
+            }
+            if (mTorchExecutor.needsPreviewSurface() && !mIsAdopted) {
+                // canSwitchDirectly() only goes by what was probed before, and
+                // the camera turned out to need a preview; the service gives
+                // it one, and the pending toggle goes through once it has it
+                Log.w(TAG, "No system torch after all; handing the tap over to the service");
+                adopt();
             }
-            //else {    // for now, make keyguard (lock screen) widget works like regular home screen widget
-                // create an intent to launch the service that activates the overlay and turns on the torch
-                Intent intent = new Intent(context, GalaxyTorchService.class);
-                intent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, appWidgetIds);
-                PendingIntent pendingIntent = PendingIntent.getService(context, 0, intent, 0);
-
-                // get the layout for the app widget (RemoteViews); then, attach an onClick
-                // listener to the button
-                RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget);
-                views.setOnClickPendingIntent(R.id.widgetbutton, pendingIntent);
-
-                // tell the manager to perform an update for the current widget
-                appWidgetManager.updateAppWidget(id, views);
-            //}
         }
+
+        public void onCameraLost() {
+            // the platform's torch is never taken away from us
+        }
+
+        public void onTorchStateChanged(boolean success, boolean isTorchOn) {
+            if (mTapTime != 0) {
+                logTapLatency("direct", mTapTime, isTorchOn);
+                mTapTime = 0;
+            }
+            WidgetUpdater.get(mContext).post(isTorchOn ? WidgetUpdater.State.ON : WidgetUpdater.State.OFF);
+            if (isTorchOn && !mIsAdopted) {
+                // keep the process (and so the torch) alive from the foreground
+                adopt();
+            }
+            if (isTorchOn || sActive != this)
+                return;
+
+            // switched off, by us or anybody else; let go of the torch
+            sActive = null;
+            mTorchExecutor.removeListener(this);
+            mTorchExecutor.releaseCamera();
+            mTorchExecutor.giveBack();
+        }
+
+        private void adopt() {
+            mIsAdopted = true;
+            Intent intent = new Intent(mContext, GalaxyTorchService.class);
+            intent.setAction(GalaxyTorchService.ACTION_ADOPT);
+            mContext.startService(intent);
+        }
+
     }
 
 }
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.io.IOException;
+import java.util.List;
+
+import android.annotation.SuppressLint;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.os.Build;
+import android.view.SurfaceHolder;
+
+/**
+ * A PreviewCamera backed by an opened android.hardware.Camera.
+ */
+public class LegacyCamera implements PreviewCamera {
+
+    /**
+     * Opens the camera with Camera.open(), as CameraDevice does on a device.
+     */
+    public static final CameraDevice.CameraOpener OPENER = new CameraDevice.CameraOpener() {
+        @Override
+        public PreviewCamera open() {
+            Camera camera = Camera.open();
+            return (camera != null ? new LegacyCamera(camera) : null);
+        }
+    };
+
+    private final Camera mCamera;
+
+    public LegacyCamera(Camera camera) {
+        mCamera = camera;
+    }
+
+    /**
+     * @return the id of the camera Camera.open() opens, i.e. the first
+     *         back-facing one
+     */
+    @SuppressLint("NewApi")
+    public static int findDefaultCameraId() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD)
+            return 0;   // there is only the one camera
+
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+            Camera.getCameraInfo(i, info);
+            if (info.facing == Camera.CameraInfo.CAMERA_FACING_BACK)
+                return i;
+        }
+        return 0;
+    }
+
+    public Parameters getParameters() {
+        return new LegacyParameters(mCamera.getParameters());
+    }
+
+    public void setParameters(Parameters params) {
+        mCamera.setParameters(((LegacyParameters) params).mParams);
+    }
+
+    public void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+        mCamera.setPreviewDisplay(holder);
+    }
+
+    @SuppressLint("NewApi")
+    public void setPreviewTexture(SurfaceTexture texture) throws IOException {
+        mCamera.setPreviewTexture(texture);
+    }
+
+    public void startPreview() {
+        mCamera.startPreview();
+    }
+
+    public void stopPreview() {
+        mCamera.stopPreview();
+    }
+
+    public void setErrorListener(final ErrorListener listener) {
+        mCamera.setErrorCallback(listener == null ? null : new Camera.ErrorCallback() {
+            @Override
+            public void onError(int error, Camera camera) {
+                listener.onError(error, LegacyCamera.this);
+            }
+        });
+    }
+
+    public void release() {
+        mCamera.release();
+    }
+
+    private static class LegacyParameters implements Parameters {
+
+        private final Camera.Parameters mParams;
+
+        LegacyParameters(Camera.Parameters params) {
+            mParams = params;
+        }
+
+        public String getFlashMode() {
+            return mParams.getFlashMode();
+        }
+
+        public void setFlashMode(String mode) {
+            mParams.setFlashMode(mode);
+        }
+
+        public List<String> getSupportedFlashModes() {
+            return mParams.getSupportedFlashModes();
+        }
+
+    }
+
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+/**
+ * A light pattern compiled down to a flat array of alternating on and off
+ * durations (in ms), always starting with "on" and ending with "off", so
+ * that StrobeEngine can play it without allocating anything per edge.
+ */
+public class LightPattern {
+
+    public static final String STROBE = "strobe";
+    public static final String SOS = "sos";
+    public static final String BEACON = "beacon";
+    public static final String CUSTOM = "custom";
+    public static final String MORSE = "morse";     // sent by MorseTransmitter; not compiled here
+
+    public static final int REPEAT_FOREVER = 0;
+
+    public static final int DEFAULT_FREQUENCY = 8;      // Hz
+    public static final int DEFAULT_DUTY_CYCLE = 16;    // percent
+
+    private static final int PWM_PERIOD = 20;           // ms, i.e. 50 Hz
+    private static final int SOS_UNIT = 200;            // ms per Morse unit
+    private static final int BEACON_ON = 100;
+    private static final int BEACON_OFF = 1900;
+
+    private final int[] mTimings;
+    private final int mRepeats;
+
+    private LightPattern(int[] timings, int repeats) {
+        assert (timings.length > 0 && timings.length % 2 == 0);
+        mTimings = timings;
+        mRepeats = repeats;
+    }
+
+    /**
+     * @param frequency strobe cycles per second
+     * @param dutyCycle the percentage of each cycle the LED is on
+     */
+    public static LightPattern strobe(int frequency, int dutyCycle) {
+        int period = 1000 / Math.max(1, frequency);
+        int onTime = Math.max(1, period * Math.min(100, dutyCycle) / 100);
+        int offTime = Math.max(1, period - onTime);
+        return new LightPattern(new int[] { onTime, offTime }, REPEAT_FOREVER);
+    }
+
+    /**
+     * A steady light dimmed by pulse-width modulation: on for the given
+     * share of every short period, too fast to see as a strobe. The period
+     * is a compromise; the camera needs a few ms per edge, so a faster
+     * period gets noticeably off the requested duty cycle.
+     * 
+     * @param brightness the percentage of each period the LED is on
+     */
+    public static LightPattern pwm(int brightness) {
+        int onTime = Math.max(1, Math.min(PWM_PERIOD - 1, Math.round(PWM_PERIOD * brightness / 100f)));
+        return new LightPattern(new int[] { onTime, PWM_PERIOD - onTime }, REPEAT_FOREVER);
+    }
+
+    /**
+     * ... --- ... followed by a word gap.
+     */
+    public static LightPattern sos() {
+        int dot = SOS_UNIT;
+        int dash = 3 * SOS_UNIT;
+        int gap = SOS_UNIT;
+        int letterGap = 3 * SOS_UNIT;
+        int wordGap = 7 * SOS_UNIT;
+        return new LightPattern(new int[] {
+                dot, gap, dot, gap, dot, letterGap,
+                dash, gap, dash, gap, dash, letterGap,
+                dot, gap, dot, gap, dot, wordGap
+        }, REPEAT_FOREVER);
+    }
+
+    /**
+     * A short blink every two seconds.
+     */
+    public static LightPattern beacon() {
+        return new LightPattern(new int[] { BEACON_ON, BEACON_OFF }, REPEAT_FOREVER);
+    }
+
+    /**
+     * Compile a user-defined list of on/off durations.
+     *
+     * @param description comma or whitespace separated durations in ms,
+     *                    starting with an "on" duration; an odd count is
+     *                    padded with an "off" as long as the last "on"
+     * @throws IllegalArgumentException if the description is empty, or has
+     *                                  anything but positive integers
+     */
+    public static LightPattern custom(String description) {
+        String[] tokens = description.trim().split("[\\s,]+");
+        if (tokens.length == 0 || tokens[0].length() == 0)
+            throw new IllegalArgumentException("Empty pattern");
+
+        int[] timings = new int[tokens.length + (tokens.length % 2)];
+        for (int i = 0; i < tokens.length; i++) {
+            int duration;
+            try {
+                duration = Integer.parseInt(tokens[i]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a duration: " + tokens[i]);
+            }
+            if (duration <= 0)
+                throw new IllegalArgumentException("Not a positive duration: " + duration);
+            timings[i] = duration;
+        }
+        if (tokens.length % 2 != 0)
+            timings[tokens.length] = timings[tokens.length - 1];
+
+        return new LightPattern(timings, REPEAT_FOREVER);
+    }
+
+    /**
+     * @param repeats how many times to play the pattern through, or
+     *                REPEAT_FOREVER to loop until stopped
+     * @return this pattern, played the given number of times
+     */
+    public LightPattern repeat(int repeats) {
+        return new LightPattern(mTimings, Math.max(REPEAT_FOREVER, repeats));
+    }
+
+    /**
+     * @param percent how long each flash stays, as a percentage of its
+     *                current length; the time taken off goes to the pause
+     *                that follows, so the pattern keeps its rhythm
+     * @return this pattern with shorter flashes
+     */
+    public LightPattern dimmed(int percent) {
+        int[] timings = new int[mTimings.length];
+        for (int i = 0; i < mTimings.length; i += 2) {
+            int onTime = Math.max(1, mTimings[i] * percent / 100);
+            timings[i] = onTime;
+            timings[i + 1] = mTimings[i + 1] + (mTimings[i] - onTime);
+        }
+        return new LightPattern(timings, mRepeats);
+    }
+
+    /**
+     * The compiled timings; not copied, so callers must not modify it.
+     */
+    int[] getTimings() {
+        return mTimings;
+    }
+
+    public int getRepeats() {
+        return mRepeats;
+    }
+
+    /**
+     * @return the duration (in ms) of a single pass through the pattern
+     */
+    public int getDuration() {
+        int duration = 0;
+        for (int timing : mTimings)
+            duration += timing;
+        return duration;
+    }
+
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+/**
+ * Encodes text into International Morse code one timing at a time, as it
+ * is sent: alternating on and off durations (in ms), starting with "on",
+ * the way a LightPattern is compiled. Only the position in the text is
+ * kept, so a message of any length costs no more memory than the text
+ * itself, and nothing is allocated per timing.
+ *
+ * Timing follows the usual convention: a dot is one unit, a dash three,
+ * with one unit between the elements of a character, three between
+ * characters and seven between words; a unit is 1200 / WPM ms, which
+ * sends the word "PARIS " (50 units) the given number of times a minute.
+ * Whitespace separates words; characters with no Morse code are skipped.
+ *
+ * Plain Java, so that it can be run and benchmarked off the device.
+ */
+public class MorseEncoder {
+
+    public static final int MIN_WPM = 5;
+    public static final int MAX_WPM = 30;       // a 40 ms unit; any faster and toggling shows
+    public static final int DEFAULT_WPM = 15;
+
+    public static final int UNITS_PER_WORD = 50;    // "PARIS "
+
+    private static final int DASH = 3;
+    private static final int ELEMENT_GAP = 1;
+    private static final int LETTER_GAP = 3;
+    private static final int WORD_GAP = 7;
+
+    // the codes of ' ' through 'Z'; null where there is none
+    private static final String[] CODES = {
+            null, "-.-.--", ".-..-.", null, "...-..-", null, ".-...", ".----.",
+            "-.--.", "-.--.-", null, ".-.-.", "--..--", "-....-", ".-.-.-", "-..-.",
+            "-----", ".----", "..---", "...--", "....-", ".....", "-....", "--...",
+            "---..", "----.", "---...", "-.-.-.", null, "-...-", null, "..--..",
+            ".--.-.", ".-", "-...", "-.-.", "-..", ".", "..-.", "--.",
+            "....", "..", ".---", "-.-", ".-..", "--", "-.", "---",
+            ".--.", "--.-", ".-.", "...", "-", "..-", "...-", ".--",
+            "-..-", "-.--", "--.."
+    };
+
+    private final CharSequence mText;
+    private final int mUnit;        // ms
+
+    private int mPosition;          // the next character of the text to look at
+    private String mCode;           // of the character being sent; null before the first and after the last
+    private int mElement;           // the next element of mCode
+    private boolean mIsGapNext;     // whether an element was just sent, and its gap is due
+    private boolean mIsDone;
+    private long mUnits;            // sent so far, over all passes
+
+    /**
+     * @param text the message; read as it is sent, so it must not change meanwhile
+     * @param wpm the speed, in words per minute; clamped to MIN_WPM..MAX_WPM
+     */
+    public MorseEncoder(CharSequence text, int wpm) {
+        mText = text;
+        mUnit = 1200 / Math.max(MIN_WPM, Math.min(MAX_WPM, wpm));
+    }
+
+    /**
+     * @return whether the text has anything to send at all
+     */
+    public static boolean canEncode(CharSequence text) {
+        if (text == null)
+            return false;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            if (codeOf(text.charAt(i)) != null)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the Morse code of the character, as dots and dashes, or null
+     *         if it has none
+     */
+    public static String codeOf(char c) {
+        if (c >= 'a' && c <= 'z')
+            c -= 'a' - 'A';
+        if (c < ' ' || c - ' ' >= CODES.length)
+            return null;
+        return CODES[c - ' '];
+    }
+
+    /**
+     * @return how long (in ms) the next phase lasts, alternately on and off
+     *         starting with on; 0 once the message has been sent, which is
+     *         always after an "off" phase of a word gap
+     */
+    public int nextTiming() {
+        if (mIsDone)
+            return 0;
+
+        int units;
+        if (mIsGapNext) {
+            mIsGapNext = false;
+            if (mElement < mCode.length())
+                units = ELEMENT_GAP;
+            else
+                units = nextCharacter() ? LETTER_GAP : WORD_GAP;
+        } else {
+            if (mCode == null)
+                nextCharacter();
+            if (mCode == null) {
+                // nothing (left) to send
+                mIsDone = true;
+                return 0;
+            }
+            units = (mCode.charAt(mElement++) == '-') ? DASH : 1;
+            mIsGapNext = true;
+        }
+        mUnits += units;
+        return units * mUnit;
+    }
+
+    /**
+     * Move on to the next character that has a code.
+     *
+     * @return false if a word boundary or the end of the text came first
+     *         (in the latter case mCode is left null)
+     */
+    private boolean nextCharacter() {
+        boolean sameWord = true;
+        int length = mText.length();
+        while (mPosition < length) {
+            char c = mText.charAt(mPosition++);
+            String code = codeOf(c);
+            if (code != null) {
+                mCode = code;
+                mElement = 0;
+                return sameWord;
+            }
+            if (Character.isWhitespace(c))
+                sameWord = false;
+        }
+        mCode = null;
+        return false;
+    }
+
+    /**
+     * Start sending the text over from the beginning; the units sent so far
+     * still count.
+     */
+    public void rewind() {
+        mPosition = 0;
+        mCode = null;
+        mElement = 0;
+        mIsGapNext = false;
+        mIsDone = false;
+    }
+
+    /**
+     * @return how many units (dots' worth of time, on or off) have been
+     *         handed out so far, over all passes
+     */
+    public long getUnits() {
+        return mUnits;
+    }
+
+    /**
+     * @return the length (in ms) of a unit
+     */
+    public int getUnitMillis() {
+        return mUnit;
+    }
+
+    /**
+     * @return the speed actually encoded, which the unit being a whole
+     *         number of ms may round off the one asked for
+     */
+    public float getWpm() {
+        return 1200f / mUnit;
+    }
+
+    /**
+     * @return how many characters of the text have been reached so far
+     */
+    public int getPosition() {
+        return mPosition;
+    }
+
+    public int getLength() {
+        return mText.length();
+    }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Sends a message in Morse code through the strobe engine, as a Stream fed
+ * by a MorseEncoder, and measures the speed actually achieved: the units
+ * sent over the time their edges really took, which toggling the torch and
+ * scheduling latency stretch beyond what the encoder asked for.
+ *
+ * The encoder is only touched on the engine's thread; the measurements can
+ * be read from any thread.
+ */
+public class MorseTransmitter implements StrobeEngine.Stream {
+
+    private final MorseEncoder mEncoder;
+    private final int mRepeats;     // passes to send, or LightPattern.REPEAT_FOREVER
+    private int mPasses;
+
+    // the following are guarded by this
+    private long mStartTime;        // nanoTime of the first edge; 0 until then
+    private long mLastEdgeTime;     // nanoTime of the latest edge after it
+    private long mUnitsSent;        // units whose phases were over by then
+    private int mPosition;          // characters of the text reached by then
+    private boolean mIsDone;
+
+    /**
+     * @param repeats how many times to send the message, or
+     *                LightPattern.REPEAT_FOREVER to loop until stopped
+     */
+    public MorseTransmitter(MorseEncoder encoder, int repeats) {
+        mEncoder = encoder;
+        mRepeats = repeats;
+    }
+
+    @Override
+    public int nextTiming() {
+        // called on each edge, i.e. as the phase handed out last time ends
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (mStartTime == 0)
+                mStartTime = now;
+            mLastEdgeTime = now;
+            mUnitsSent = mEncoder.getUnits();
+            mPosition = mEncoder.getPosition();
+        }
+
+        int timing = mEncoder.nextTiming();
+        if (timing == 0 && (mRepeats == LightPattern.REPEAT_FOREVER || ++mPasses < mRepeats)) {
+            mEncoder.rewind();
+            timing = mEncoder.nextTiming();
+        }
+        if (timing == 0) {
+            synchronized (this) {
+                mIsDone = true;
+            }
+        }
+        return timing;
+    }
+
+    /**
+     * @return the speed (in words per minute) the message has been sent at
+     *         so far, as measured on the edges; 0 until it has started
+     */
+    public synchronized float getMeasuredWpm() {
+        long elapsed = mLastEdgeTime - mStartTime;
+        if (elapsed <= 0)
+            return 0;
+        return mUnitsSent * 60e9f / MorseEncoder.UNITS_PER_WORD / elapsed;
+    }
+
+    /**
+     * @return the speed the encoder was set to
+     */
+    public float getWpm() {
+        return mEncoder.getWpm();
+    }
+
+    public synchronized boolean isDone() {
+        return mIsDone;
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        int position;
+        boolean done;
+        synchronized (this) {
+            position = mPosition;
+            done = mIsDone;
+        }
+        pw.println(String.format(Locale.US, "%smorse: %s, %d of %d character(s), %.1f WPM measured, %.1f set",
+                prefix, done ? "sent" : "sending", done ? mEncoder.getLength() : position,
+                mEncoder.getLength(), getMeasuredWpm(), getWpm()));
+    }
+
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.io.IOException;
+
+import android.graphics.SurfaceTexture;
+import android.view.SurfaceHolder;
+
+/**
+ * A camera opened the legacy way, as CameraDevice drives it: the torch's
+ * parameters (see TorchCamera), plus the preview some devices need the torch
+ * to stay lit and the errors that tell us it was taken away. LegacyCamera
+ * backs it with the real android.hardware.Camera; the tests back it with a
+ * fake one.
+ */
+public interface PreviewCamera extends TorchCamera {
+
+    /**
+     * Told when the camera fails, e.g. because another application with a
+     * higher priority opened it.
+     */
+    public interface ErrorListener {
+
+        public void onError(int error, PreviewCamera camera);
+
+    }
+
+    public void setPreviewDisplay(SurfaceHolder holder) throws IOException;
+
+    /**
+     * API 11+.
+     */
+    public void setPreviewTexture(SurfaceTexture texture) throws IOException;
+
+    public void startPreview();
+
+    public void stopPreview();
+
+    public void setErrorListener(ErrorListener listener);
+
+    public void release();
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * A partial wake lock held for exactly as long as light pulses are
+ * pending, so that a strobe (or a pulsed, dimmed torch) keeps its timing
+ * with the screen off and through idle, without keeping the screen on.
+ * How long each session held it is logged and totted up for the dump.
+ *
+ * The strobe engine and the music strobe share one; each holds it in its
+ * own name, and the CPU is kept awake for as long as either does. Holding
+ * (or letting go) twice in the same name counts once, so a restarted
+ * pattern needs no matching release.
+ */
+public class PulseWakeLock {
+
+    private static final String TAG = PulseWakeLock.class.getSimpleName();
+
+    private final PowerManager.WakeLock mWakeLock;
+
+    // the following are guarded by this
+    private final List<Object> mHolders = new ArrayList<Object>();
+    private long mHeldSince;    // uptime it was acquired at; 0 while released
+    private int mSessions;
+    private long mLastHeldMillis;
+    private long mTotalHeldMillis;
+    private long mMaxHeldMillis;
+
+    public PulseWakeLock(Context context) {
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "GalaxyTorch:" + TAG);
+        mWakeLock.setReferenceCounted(false);
+    }
+
+    /**
+     * Keep the CPU awake until the given holder calls release(); does
+     * nothing if it already holds the lock.
+     */
+    public synchronized void acquire(Object holder) {
+        if (mHolders.contains(holder))
+            return;
+        mHolders.add(holder);
+        if (mHeldSince != 0)
+            return;     // held for another already
+        mWakeLock.acquire();
+        mHeldSince = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Let go in the given holder's name; once nobody holds it, let the CPU
+     * sleep again, and account for the session.
+     */
+    public synchronized void release(Object holder) {
+        if (!mHolders.remove(holder) || !mHolders.isEmpty())
+            return;
+        mWakeLock.release();
+        long held = SystemClock.uptimeMillis() - mHeldSince;
+        mHeldSince = 0;
+        mSessions++;
+        mLastHeldMillis = held;
+        mTotalHeldMillis += held;
+        if (held > mMaxHeldMillis)
+            mMaxHeldMillis = held;
+        Log.i(TAG, "Wake lock held for " + held + " ms this session; "
+                + mTotalHeldMillis + " ms over " + mSessions + " session(s)");
+    }
+
+    public synchronized boolean isHeld() {
+        return mHeldSince != 0;
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "wake lock: " + mSessions + " session(s), held last=" + mLastHeldMillis
+                + " max=" + mMaxHeldMillis + " total=" + mTotalHeldMillis + " (ms)"
+                + (mHeldSince != 0 ? ", held now for "
+                        + (SystemClock.uptimeMillis() - mHeldSince) + " ms by " + mHolders.size() : ""));
+    }
+
+}
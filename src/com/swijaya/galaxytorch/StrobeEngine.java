@@ -0,0 +1,336 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Drives the flashlight LED through a precompiled LightPattern (a plain
+ * strobe being the simplest one), or through a Stream of timings produced
+ * as it plays, from its own elevated priority thread.
+ *
+ * Every edge is scheduled against an absolute deadline (see StrobeSequencer,
+ * which does the timing), so time lost to scheduling latency or to toggling
+ * the torch itself does not accumulate into the strobe period. The
+ * difference between the scheduled and the actual time of each edge is
+ * recorded and can be queried at any time from any thread, as is the share
+ * of the time the LED was actually on (which, toggling taking time of its
+ * own, is not quite what the pattern asks for).
+ *
+ * While a pattern plays, the engine holds a partial wake lock (if given
+ * one), so that edges keep firing on time with the screen off.
+ */
+public class StrobeEngine {
+
+    /**
+     * The thing being strobed; called on the engine's thread.
+     */
+    public interface Light {
+
+        public void setLight(boolean on);
+
+    }
+
+    /**
+     * A pattern produced one timing at a time as it plays, instead of
+     * compiled up front; called on the engine's thread.
+     */
+    public interface Stream {
+
+        /**
+         * @return how long (in ms) the next phase lasts, alternately on and
+         *         off starting with on; 0 once the stream has ended, which
+         *         it should only do after an "off" phase
+         */
+        public int nextTiming();
+
+    }
+
+    /**
+     * Notified on the engine's thread when a pattern with a finite repeat
+     * count (or a stream) has played through and left the LED off.
+     */
+    public interface Listener {
+
+        public void onPatternFinished();
+
+    }
+
+    private static final String TAG = StrobeEngine.class.getSimpleName();
+
+    private static final int JITTER_SAMPLES = 64;
+    private static final long STOP_TIMEOUT_MS = 500;
+
+    private final Light mLight;
+    private final PulseWakeLock mWakeLock;  // null if the device may sleep mid-pattern
+    private Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    // the following are only touched on the engine's thread
+    private final StrobeSequencer mSequencer;
+    private boolean mRunning;
+
+    // the following are guarded by the jitter array's monitor
+    private final int[] mJitter = new int[JITTER_SAMPLES];
+    private long mEdgeCount;
+    private int mJitterIndex;   // where the next sample goes
+    private int mMaxJitter;
+    private long mPlayStart;    // nanoTime the current pattern started playing
+    private long mPlayEnd;      // nanoTime it stopped; 0 while playing
+    private long mLitSince;     // nanoTime the LED last went on; 0 while off
+    private long mLitNanos;     // how long it has been on, up to mLitSince
+
+    // what the sequencer switches; notes when the LED actually changes
+    private final Light mMeasuredLight = new Light() {
+        @Override
+        public void setLight(boolean on) {
+            mLight.setLight(on);
+            recordLight(on);
+        }
+    };
+
+    private final Runnable mEdge = new Runnable() {
+        @Override
+        public void run() {
+            long now = SystemClock.uptimeMillis();
+            recordJitter((int) (now - mSequencer.getDeadline()));
+
+            if (!mSequencer.fire(now)) {
+                // the last pass has played out (ending on an "off" phase)
+                halt();
+                if (mListener != null)
+                    mListener.onPatternFinished();
+                return;
+            }
+            mHandler.postAtTime(this, mSequencer.getDeadline());
+        }
+    };
+
+    public StrobeEngine(Light light, PulseWakeLock wakeLock) {
+        mLight = light;
+        mWakeLock = wakeLock;
+        mSequencer = new StrobeSequencer(mMeasuredLight);
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Start (or restart with a new pattern) playing.
+     *
+     * @param pattern the compiled pattern to play through
+     */
+    public void play(LightPattern pattern) {
+        Log.v(TAG, "Playing a " + pattern.getDuration() + " ms pattern "
+                + (pattern.getRepeats() == LightPattern.REPEAT_FOREVER
+                        ? "in a loop" : pattern.getRepeats() + " time(s)"));
+        play(pattern, null);
+    }
+
+    /**
+     * Start (or restart with a new stream) playing, until the stream ends.
+     */
+    public void play(Stream stream) {
+        Log.v(TAG, "Playing a stream");
+        play(null, stream);
+    }
+
+    private void play(final LightPattern pattern, final Stream stream) {
+        mHandler.removeCallbacks(mEdge);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.removeCallbacks(mEdge);
+                synchronized (mJitter) {
+                    mPlayStart = System.nanoTime();
+                    mPlayEnd = 0;
+                    mLitSince = 0;
+                    mLitNanos = 0;
+                }
+                if (mWakeLock != null)
+                    mWakeLock.acquire(StrobeEngine.this);
+                if (stream != null)
+                    mSequencer.start(stream, SystemClock.uptimeMillis());
+                else
+                    mSequencer.start(pattern, SystemClock.uptimeMillis());
+                mRunning = true;
+                mEdge.run();
+            }
+        });
+    }
+
+    /**
+     * Turn the LED off if a pattern is playing; only called on the engine's thread.
+     */
+    private void halt() {
+        mHandler.removeCallbacks(mEdge);
+        if (mRunning) {
+            mMeasuredLight.setLight(false);
+            mRunning = false;
+            synchronized (mJitter) {
+                mPlayEnd = System.nanoTime();
+            }
+            if (mWakeLock != null)
+                mWakeLock.release(this);
+        }
+    }
+
+    /**
+     * Stop playing and leave the LED off. Blocks until the engine's thread
+     * has acknowledged, so that no edge can fire after this returns.
+     */
+    public void stop() {
+        mHandler.removeCallbacks(mEdge);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        Runnable halt = new Runnable() {
+            @Override
+            public void run() {
+                halt();
+                stopped.countDown();
+            }
+        };
+
+        if (Looper.myLooper() == mThread.getLooper()) {
+            halt();
+            return;
+        }
+
+        mHandler.post(halt);
+        try {
+            if (!stopped.await(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Timed out waiting for the pattern to stop");
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "InterruptedException: " + e.getLocalizedMessage());
+            Thread.currentThread().interrupt();
+        }
+        Log.v(TAG, "Pattern stopped after " + getEdgeCount() + " edges; mean jitter "
+                + getMeanJitter() + " ms, max jitter " + getMaxJitter() + " ms");
+    }
+
+    /**
+     * Stop playing and terminate the engine's thread. The engine cannot be
+     * used afterwards.
+     */
+    public void quit() {
+        stop();
+        mThread.quit();
+    }
+
+    private void recordJitter(int jitter) {
+        synchronized (mJitter) {
+            mJitter[mJitterIndex] = jitter;
+            mJitterIndex = (mJitterIndex + 1) % JITTER_SAMPLES;
+            mEdgeCount++;
+            if (jitter > mMaxJitter)
+                mMaxJitter = jitter;
+        }
+    }
+
+    private void recordLight(boolean on) {
+        long now = System.nanoTime();
+        synchronized (mJitter) {
+            if (on && mLitSince == 0) {
+                mLitSince = now;
+            } else if (!on && mLitSince != 0) {
+                mLitNanos += now - mLitSince;
+                mLitSince = 0;
+            }
+        }
+    }
+
+    /**
+     * @return the percentage of the time the LED has actually been on since
+     *         the current (or last) pattern started, as measured around each
+     *         toggle; 0 if nothing has played yet
+     */
+    public float getMeasuredDutyCycle() {
+        synchronized (mJitter) {
+            if (mPlayStart == 0)
+                return 0;
+            long end = (mPlayEnd != 0) ? mPlayEnd : System.nanoTime();
+            long lit = mLitNanos + (mLitSince != 0 ? end - mLitSince : 0);
+            long total = end - mPlayStart;
+            return (total > 0) ? 100f * lit / total : 0;
+        }
+    }
+
+    /**
+     * @return the number of edges fired since the engine was created
+     */
+    public long getEdgeCount() {
+        synchronized (mJitter) {
+            return mEdgeCount;
+        }
+    }
+
+    /**
+     * @return how late (in ms) the most recent edge fired
+     */
+    public int getLastJitter() {
+        synchronized (mJitter) {
+            if (mEdgeCount == 0)
+                return 0;
+            return mJitter[(mJitterIndex + JITTER_SAMPLES - 1) % JITTER_SAMPLES];
+        }
+    }
+
+    /**
+     * @return how late (in ms) the latest edge since the engine was created fired
+     */
+    public int getMaxJitter() {
+        synchronized (mJitter) {
+            return mMaxJitter;
+        }
+    }
+
+    /**
+     * @return the mean lateness (in ms) over the most recent edges
+     */
+    public float getMeanJitter() {
+        synchronized (mJitter) {
+            int samples = (int) Math.min(mEdgeCount, JITTER_SAMPLES);
+            if (samples == 0)
+                return 0;
+            long sum = 0;
+            for (int i = 0; i < samples; i++)
+                sum += mJitter[i];
+            return (float) sum / samples;
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+/**
+ * Steps a Light through a LightPattern (or a Stream of timings), one edge
+ * at a time, keeping the absolute deadline of the next edge. This is the
+ * timing core of StrobeEngine, without the thread: whoever drives it calls
+ * fire() once the deadline has come, with whatever clock it schedules
+ * against.
+ *
+ * Each deadline derives from the previous deadline, not from when the
+ * previous edge actually ran, so lateness does not accumulate into the
+ * period; only when a whole phase has been missed does the sequencer
+ * restart timing from the present.
+ */
+public class StrobeSequencer {
+
+    private final StrobeEngine.Light mLight;
+
+    private int[] mTimings;     // alternating on and off durations, in ms
+    private StrobeEngine.Stream mStream;    // where they come from instead, if not null
+    private int mIndex;         // the timing the next edge starts
+    private int mPassesLeft;    // passes through the pattern still to play; negative if forever
+    private long mDeadline;     // when (in ms) the next edge is due
+
+    public StrobeSequencer(StrobeEngine.Light light) {
+        mLight = light;
+    }
+
+    /**
+     * Start over with the given pattern, its first edge due right away.
+     */
+    public void start(LightPattern pattern, long now) {
+        mTimings = pattern.getTimings();
+        mStream = null;
+        mIndex = 0;
+        mPassesLeft = (pattern.getRepeats() == LightPattern.REPEAT_FOREVER
+                ? -1 : pattern.getRepeats());
+        mDeadline = now;
+    }
+
+    /**
+     * Start over with the given stream, its first edge due right away; it
+     * plays until the stream ends.
+     */
+    public void start(StrobeEngine.Stream stream, long now) {
+        mTimings = null;
+        mStream = stream;
+        mIndex = 0;
+        mPassesLeft = -1;
+        mDeadline = now;
+    }
+
+    /**
+     * @return when (in ms, on the clock given to start() and fire()) the
+     *         next edge is due
+     */
+    public long getDeadline() {
+        return mDeadline;
+    }
+
+    /**
+     * Fire the edge that is due, and work out when the next one is.
+     *
+     * @param now the current time, at or after getDeadline()
+     * @return false if the pattern had already played out, in which case
+     *         nothing was fired
+     */
+    public boolean fire(long now) {
+        if (mPassesLeft == 0)
+            return false;
+
+        int duration;
+        if (mStream != null) {
+            duration = mStream.nextTiming();
+            if (duration <= 0) {
+                mPassesLeft = 0;
+                return false;
+            }
+            mLight.setLight(mIndex == 0);
+            mIndex ^= 1;
+        } else {
+            duration = mTimings[mIndex];
+            mLight.setLight(mIndex % 2 == 0);
+
+            if (++mIndex == mTimings.length) {
+                mIndex = 0;
+                if (mPassesLeft > 0)
+                    mPassesLeft--;
+            }
+        }
+
+        mDeadline += duration;
+        if (mDeadline <= now) {
+            // we fell more than a whole phase behind; give this phase its
+            // full length instead of bursting through the missed ones
+            mDeadline = now + duration;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import android.util.Log;
+
+/**
+ * A torch that asks the platform to switch the flashlight for us, through
+ * CameraManager.setTorchMode() (API 23+). It needs neither an opened
+ * Camera nor a preview surface, so the Camera argument is ignored.
+ *
+ * The platform is reached through the Manager interface, which
+ * CameraManagerCompat implements for real devices. CameraDevice takes the
+ * Manager it is given, so the tests (see test/) hand it a fake one to
+ * exercise the selection and fallback logic without a device.
+ */
+public class SystemTorch implements CameraDevice.Torch {
+
+    /**
+     * The subset of CameraManager this torch needs.
+     */
+    public interface Manager {
+
+        /**
+         * @return the ids of the cameras with a flash unit, preferred one first
+         */
+        public String[] getTorchCameraIds();
+
+        /**
+         * @throws Exception whatever the platform throws, e.g. when the
+         *                   camera is in use by another application
+         */
+        public void setTorchMode(String cameraId, boolean on) throws Exception;
+
+        /**
+         * @return the highest torch strength level the camera's flash unit
+         *         supports; 1 if it cannot be dimmed
+         */
+        public int getMaxTorchStrength(String cameraId);
+
+        /**
+         * Turn the torch on at the given strength level.
+         * 
+         * @param level from 1 to getMaxTorchStrength()
+         * @throws IllegalStateException if this platform has no strength
+         *         control; callers are expected to have checked
+         *         getMaxTorchStrength() first
+         * @throws Exception whatever the platform throws
+         */
+        public void setTorchStrength(String cameraId, int level) throws Exception;
+
+    }
+
+    private static final String TAG = SystemTorch.class.getSimpleName();
+
+    private final Manager mManager;
+    private final String mCameraId;
+    private final int mMaxStrength;
+
+    private SystemTorch(Manager manager, String cameraId) {
+        mManager = manager;
+        mCameraId = cameraId;
+        mMaxStrength = Math.max(1, manager.getMaxTorchStrength(cameraId));
+        Log.v(TAG, "Torch strength levels: " + mMaxStrength);
+    }
+
+    /**
+     * @param manager the platform's camera manager, or null if there is none
+     * @return a torch for the preferred camera with a flash unit, or null if
+     *         there is no such camera
+     */
+    public static SystemTorch create(Manager manager) {
+        if (manager == null)
+            return null;
+
+        String[] ids = manager.getTorchCameraIds();
+        if (ids == null || ids.length == 0) {
+            Log.v(TAG, "No camera with a flash unit");
+            return null;
+        }
+
+        Log.v(TAG, "Using camera " + ids[0] + " for the system torch");
+        return new SystemTorch(manager, ids[0]);
+    }
+
+    public boolean toggleTorch(TorchCamera camera, boolean on) {
+        try {
+            mManager.setTorchMode(mCameraId, on);
+        }
+        catch (Exception e) {
+            Log.e(TAG, "Failed to set torch mode " + (on ? "on" : "off") + ": " + e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the platform can dim this torch (API 33+, and only
+     *         on some flash units)
+     */
+    public boolean canDim() {
+        return (mMaxStrength > 1);
+    }
+
+    /**
+     * Turn the torch on at (the nearest level to) the given brightness.
+     * 
+     * @param percent of the full strength
+     * @return the level set, as a percentage of the full strength, or -1 if
+     *         this torch cannot be dimmed or the platform refused
+     */
+    public int turnOnDimmed(int percent) {
+        if (!canDim())
+            return -1;
+        int level = Math.max(1, Math.min(mMaxStrength, Math.round(mMaxStrength * percent / 100f)));
+        try {
+            mManager.setTorchStrength(mCameraId, level);
+        }
+        catch (Exception e) {
+            Log.e(TAG, "Failed to set torch strength " + level + ": " + e);
+            return -1;
+        }
+        return 100 * level / mMaxStrength;
+    }
+
+    public String getCameraId() {
+        return mCameraId;
+    }
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.util.List;
+
+/**
+ * The part of a camera that a CameraDevice.Torch drives: its parameters,
+ * read and written as a whole. LegacyCamera backs it with the real
+ * android.hardware.Camera; keeping the torches to this interface (and free
+ * of any other Android class) lets them run against a simulated camera, so
+ * that the hot path can be measured off-device (see bench/).
+ */
+public interface TorchCamera {
+
+    public static final String FLASH_MODE_OFF = "off";
+    public static final String FLASH_MODE_TORCH = "torch";
+
+    /**
+     * A snapshot of the camera's parameters; changes only take effect once
+     * handed back to setParameters().
+     */
+    public interface Parameters {
+
+        public String getFlashMode();
+
+        public void setFlashMode(String mode);
+
+        public List<String> getSupportedFlashModes();
+
+    }
+
+    public Parameters getParameters();
+
+    public void setParameters(Parameters params);
+
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.util.List;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * A persistent record of what each camera on this device can do with its
+ * flashlight (its flash modes, and the Torch strategy that works for it),
+ * so that we only have to probe the camera once.
+ *
+ * Entries are keyed by camera id and are only valid for the OS build they
+ * were probed on; the whole store is wiped as soon as the build fingerprint
+ * changes (i.e. after an OS update), or when invalidate() is called.
+ *
+ * Writes go to disk in the background (on API 9+), so that none of them
+ * holds up the thread that makes it.
+ */
+public class TorchCapabilities {
+
+    private static final String TAG = TorchCapabilities.class.getSimpleName();
+
+    /**
+     * The Torch implementations we know how to pick from.
+     */
+    public static final String STRATEGY_CACHED = "cached";      // CachedTorch
+    public static final String STRATEGY_DEFAULT = "default";    // DefaultTorch
+    public static final String STRATEGY_SYSTEM = "system";      // SystemTorch
+    public static final String STRATEGY_NONE = "none";          // no torch mode at all
+
+    private static final String PREFS_NAME = "torch_capabilities";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_FLASH_MODES = "flashmodes_";
+    private static final String KEY_STRATEGY = "strategy_";
+    private static final String KEY_LAST_STRATEGY = "laststrategy";
+
+    private static final String SEPARATOR = ",";
+
+    private final SharedPreferences mPrefs;
+
+    public TorchCapabilities(Context context) {
+        this(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+    }
+
+    /**
+     * @param prefs where the record is kept; the tests give an in-memory one
+     */
+    TorchCapabilities(SharedPreferences prefs) {
+        mPrefs = prefs;
+
+        String fingerprint = mPrefs.getString(KEY_FINGERPRINT, null);
+        if (!Build.FINGERPRINT.equals(fingerprint)) {
+            Log.i(TAG, "Build fingerprint changed from " + fingerprint + "; discarding probed capabilities");
+            invalidate();
+        }
+    }
+
+    /**
+     * Discard everything probed so far. The next camera acquisition will
+     * probe its capabilities afresh.
+     */
+    public void invalidate() {
+        save(mPrefs.edit()
+                .clear()
+                .putString(KEY_FINGERPRINT, Build.FINGERPRINT));
+    }
+
+    /**
+     * @return whether the given camera has been probed on this OS build
+     */
+    public boolean isProbed(int cameraId) {
+        return mPrefs.contains(KEY_STRATEGY + cameraId);
+    }
+
+    /**
+     * @return the Torch strategy known to work for the given camera, one of
+     *         the STRATEGY_* constants, or null if it has not been probed yet
+     */
+    public String getStrategy(int cameraId) {
+        return mPrefs.getString(KEY_STRATEGY + cameraId, null);
+    }
+
+    /**
+     * @return the Torch strategy last stored for any camera, or null if none
+     *         is stored; for callers that have not looked the camera up yet
+     */
+    public String getLastStrategy() {
+        return mPrefs.getString(KEY_LAST_STRATEGY, null);
+    }
+
+    /**
+     * @return the flash modes the given camera reported when probed; empty
+     *         if it has not been probed (or is driven by the system torch)
+     */
+    public String[] getSupportedFlashModes(int cameraId) {
+        String modes = mPrefs.getString(KEY_FLASH_MODES + cameraId, "");
+        if (modes.length() == 0)
+            return new String[0];
+        return modes.split(SEPARATOR);
+    }
+
+    /**
+     * Record what a probe found. Whether the camera needs a preview is not
+     * stored: it follows from the strategy, as only the system torch can do
+     * without one.
+     */
+    public void store(int cameraId, List<String> flashModes, String strategy) {
+        StringBuilder modes = new StringBuilder();
+        if (flashModes != null) {
+            for (String mode : flashModes) {
+                if (modes.length() > 0)
+                    modes.append(SEPARATOR);
+                modes.append(mode);
+            }
+        }
+
+        Log.v(TAG, "Storing capabilities for camera " + cameraId + ": strategy=" + strategy
+                + ", flash modes=[" + modes + "]");
+        save(mPrefs.edit()
+                .putString(KEY_FLASH_MODES + cameraId, modes.toString())
+                .putString(KEY_STRATEGY + cameraId, strategy)
+                .putString(KEY_LAST_STRATEGY, strategy));
+    }
+
+    /**
+     * Discard what was probed for the given camera, so that the next
+     * acquisition probes it afresh.
+     */
+    public void forget(int cameraId) {
+        Log.v(TAG, "Forgetting capabilities of camera " + cameraId);
+        save(mPrefs.edit()
+                .remove(KEY_FLASH_MODES + cameraId)
+                .remove(KEY_STRATEGY + cameraId)
+                .remove(KEY_LAST_STRATEGY));
+    }
+
+    /**
+     * Record a different working strategy for an already probed camera.
+     */
+    public void storeStrategy(int cameraId, String strategy) {
+        Log.v(TAG, "Storing strategy for camera " + cameraId + ": " + strategy);
+        save(mPrefs.edit()
+                .putString(KEY_STRATEGY + cameraId, strategy)
+                .putString(KEY_LAST_STRATEGY, strategy));
+    }
+
+    @SuppressLint("NewApi")
+    private static void save(SharedPreferences.Editor editor) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
+            editor.apply();
+        else
+            editor.commit();
+    }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+
+/**
+ * A blocking client of the bound control API (see TorchRemote), with its
+ * replies handled on a thread of its own. It serves as the model for
+ * outside clients, and drives the API's benchmark in device-test/. Its
+ * calls block, so they must not be made on the main thread.
+ */
+public class TorchClient implements Handler.Callback {
+
+    private static final String TAG = TorchClient.class.getSimpleName();
+
+    private static final long TIMEOUT_MS = 2000;
+
+    private final Messenger mService;
+    private final HandlerThread mThread;
+    private final Messenger mReplyTo;
+    private final ArrayBlockingQueue<Integer> mResults = new ArrayBlockingQueue<Integer>(1);
+    private volatile int mToken;        // of the request being waited for
+    private volatile int mStateCount;
+
+    public TorchClient(Messenger service) {
+        mService = service;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mReplyTo = new Messenger(new Handler(mThread.getLooper(), this));
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+        case TorchRemote.MSG_RESULT:
+            if (msg.arg1 == mToken)
+                mResults.offer(msg.arg2);
+            return true;
+        case TorchRemote.MSG_STATE:
+            mStateCount++;
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Hear about torch state changes from now on.
+     */
+    public void register() throws RemoteException {
+        Message msg = Message.obtain(null, TorchRemote.MSG_REGISTER);
+        msg.replyTo = mReplyTo;
+        mService.send(msg);
+    }
+
+    public void unregister() throws RemoteException {
+        Message msg = Message.obtain(null, TorchRemote.MSG_UNREGISTER);
+        msg.replyTo = mReplyTo;
+        mService.send(msg);
+    }
+
+    /**
+     * Send one command and wait for it to be accepted.
+     *
+     * @param command one of TorchRemote's COMMAND_ constants
+     * @return as MSG_RESULT's arg2: 1 if accepted, -1 if not, or 0 if no
+     *         answer came in time
+     */
+    public int command(int command) throws RemoteException {
+        Message msg = Message.obtain(null, TorchRemote.MSG_COMMAND, command, ++mToken);
+        return sendAndWait(msg);
+    }
+
+    /**
+     * Send a batch of commands in one go and wait for it to be accepted.
+     *
+     * @param delays how long (in ms) to wait before each command; may be null
+     * @return as MSG_RESULT's arg2: how many commands were accepted, -1 if
+     *         the batch was not, or 0 if no answer came in time
+     */
+    public int batch(int[] commands, int[] delays) throws RemoteException {
+        Message msg = Message.obtain(null, TorchRemote.MSG_BATCH, 0, ++mToken);
+        Bundle data = new Bundle();
+        data.putIntArray(TorchRemote.KEY_COMMANDS, commands);
+        if (delays != null)
+            data.putIntArray(TorchRemote.KEY_DELAYS, delays);
+        msg.setData(data);
+        return sendAndWait(msg);
+    }
+
+    private int sendAndWait(Message msg) throws RemoteException {
+        msg.replyTo = mReplyTo;
+        mResults.clear();
+        mService.send(msg);
+        try {
+            Integer result = mResults.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            return (result != null) ? result : 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    /**
+     * @return how many MSG_STATE messages have come in since register()
+     */
+    public int getStateCount() {
+        return mStateCount;
+    }
+
+    public void quit() {
+        mThread.quit();
+    }
+
+}
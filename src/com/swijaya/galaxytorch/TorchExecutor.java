@@ -0,0 +1,940 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import com.swijaya.galaxytorch.util.CameraManagerCompat;
+import com.swijaya.galaxytorch.util.LatencyHistogram;
+
+/**
+ * Owns the process' one CameraDevice on a single worker thread and carries
+ * out typed torch commands on it, on behalf of the activity and the widget
+ * service alike. The device itself is built on the worker too, as finding
+ * the camera queries the camera service; borrowing never waits for it.
+ *
+ * Both borrow the same executor (see borrow()) and take their share of the
+ * camera with acquireCamera()/releaseCamera(); the camera is only actually
+ * released once nobody holds it any more. A lit torch can therefore pass
+ * from one to the other without being turned off, and every listener hears
+ * about every state change, whoever caused it.
+ *
+ * Commands are merged while they wait: each one only moves the torch state
+ * the pending commands resolve to, and a single transition to that state is
+ * queued on the worker. A burst of N presses thus costs at most one hardware
+ * transition (or none, if it cancels itself out). A transition requested
+ * before the camera's preview is running waits for it on the worker, so no
+ * caller ever has to block on a surface. Results are posted back to the
+ * listener on the main thread.
+ *
+ * The camera can also be retained for a grace period instead of released
+ * right away (see releaseCameraLater()), keeping its preview warm on an
+ * offscreen texture, so that coming back shortly afterwards costs neither a
+ * camera open nor a preview restart.
+ */
+public class TorchExecutor {
+
+    public enum Command {
+        ON,         // turn the torch on, steadily
+        OFF,        // turn the torch off
+        TOGGLE,     // turn the torch off if it is on; on, steadily, otherwise
+        STROBE      // turn the torch off if it is on; on, strobing, otherwise
+    }
+
+    /**
+     * What a command came from, for the journal. Append only: the journal
+     * keeps the ordinals across versions.
+     */
+    public enum Trigger {
+        BUTTON,     // the activity's switch
+        ROCKER,     // a volume key, in the activity
+        START,      // the activity, on starting, as set in the preferences
+        LEAVE,      // the activity, on leaving without handing the torch over
+        WIDGET,     // a widget tap
+        TILE,       // a Quick Settings tap
+        REMOTE,     // a bound client
+        GOVERNOR,   // the governor, ending a session
+        PATTERN,    // a finite light pattern, played out
+        RELEASE,    // the camera, released with the torch lit
+        LOST        // the camera, taken away by another app
+    }
+
+    /**
+     * Called on the main thread.
+     */
+    public interface Listener {
+
+        /**
+         * @param success whether the camera could be acquired
+         */
+        public void onCameraAcquired(boolean success);
+
+        /**
+         * @param success whether the hardware did what the (merged) commands asked
+         * @param on the torch state afterwards
+         */
+        public void onTorchStateChanged(boolean success, boolean on);
+
+        /**
+         * The camera was taken away by someone else and has been released;
+         * any lit torch has also been reported off.
+         */
+        public void onCameraLost();
+
+    }
+
+    private static final String TAG = TorchExecutor.class.getSimpleName();
+
+    // the process-wide instance and how many components borrow it
+    private static TorchExecutor sInstance;
+    private static int sBorrowers;
+
+    private static final long GOVERN_INTERVAL_MILLIS = 30000;
+
+    private final Context mContext;
+    private volatile CameraDevice mCameraDevice;    // built on the worker, as it queries the camera service
+    private TorchCapabilities mCapabilities;        // guarded by mCapabilitiesLock; loaded on first use
+    private final Object mCapabilitiesLock = new Object();
+    private final TorchGovernor mGovernor;
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<Listener>();
+    private final HandlerThread mThread;
+    private final Handler mWorker;
+    private final Handler mMain = new Handler(Looper.getMainLooper());
+
+    // the following are guarded by mLock
+    private final Object mLock = new Object();
+    private boolean mTargetOn;          // the state the submitted commands resolve to
+    private boolean mTargetStrobe;
+    private boolean mIsApplyPending;    // whether mApply is queued on the worker
+    private Trigger mTrigger = Trigger.BUTTON;  // of the latest command
+    private int mSubmitted;
+
+    // the following are only touched on the worker thread
+    private int mHolders;               // how many acquireCamera() calls are not released yet
+    private boolean mIsGoverning;       // whether the governor checks on the lit torch
+    private int mGovernedStage = TorchGovernor.STAGE_NORMAL;
+    private int mSavedBrightness;       // the settings the governor stepped down from,
+    private LightPattern mSavedPattern; // restored once the torch goes off; null unless stepped down
+    private boolean mIsAcquired;
+    private boolean mIsPreviewReady;
+    private boolean mIsDeferred;        // a transition is waiting for the preview
+    private boolean mIsStrobing;
+    private int mTransitions;
+    private long mAcquireTime;          // uptime at acquisition, to time the preview setup
+    private boolean mUseOffscreenPreview;
+    private SurfaceTexture mPreviewTexture;
+    private boolean mIsRetaining;       // a delayed release is pending
+    private long mLitSince;             // uptime the torch went on at, as journaled; 0 if off
+    private long mLaunchTime;           // uptime the component being launched started at; 0 if none
+    private String mLaunchedBy;
+    private long mCameraReadyTime;      // uptime the camera came up at during that launch
+
+    private volatile boolean mNeedsPreviewSurface;
+    private volatile int mReuseCount;   // acquisitions served by a retained camera
+    private volatile int mReopenCount;  // acquisitions that had to open the camera
+    private volatile int mLostCount;    // times the camera was taken away from us
+    private volatile TorchJournal mJournal; // opened on the worker, as it maps a file
+
+    private final LatencyHistogram mReadyLatency = new LatencyHistogram("launch to ready");
+    private final LatencyHistogram mFirstLightLatency = new LatencyHistogram("launch to first light");
+
+    private final Runnable mApply = new Runnable() {
+        @Override
+        public void run() {
+            if (mIsAcquired && !mIsPreviewReady && mCameraDevice.requiresPreview()) {
+                Log.i(TAG, "Waiting for the preview before toggling...");
+                TorchTrace.mark(TorchTrace.DEFERRED, 0);
+                mIsDeferred = true;
+                return;
+            }
+
+            boolean on;
+            boolean strobe;
+            Trigger trigger;
+            synchronized (mLock) {
+                on = mTargetOn;
+                strobe = mTargetStrobe;
+                trigger = mTrigger;
+                mIsApplyPending = false;
+            }
+
+            TorchTrace.begin(TorchTrace.APPLY);
+            boolean success = apply(on, strobe);
+            TorchTrace.end(TorchTrace.APPLY);
+            boolean isOn = mCameraDevice.isFlashlightOn();
+            if (!success) {
+                synchronized (mLock) {
+                    // resynchronize with what the hardware actually did,
+                    // unless newer commands have arrived meanwhile
+                    if (!mIsApplyPending)
+                        mTargetOn = isOn;
+                }
+            }
+            TorchTrace.mark(TorchTrace.TORCH_STATE, isOn ? 1 : 0);
+            if (!success)
+                mJournal.recordFailure(trigger, on);
+            journalState(isOn, trigger);
+            if (isOn && mLaunchTime != 0 && mCameraReadyTime != 0)
+                endLaunch(true);
+            if (isOn && !mIsGoverning) {
+                mIsGoverning = true;
+                mWorker.post(mGovern);
+            } else if (!isOn) {
+                stopGoverning();
+            }
+            postTorchState(success, isOn);
+        }
+    };
+
+    private final Runnable mGovern = new Runnable() {
+        @Override
+        public void run() {
+            if (!mCameraDevice.isFlashlightOn())
+                return;
+            int stage = mGovernor.check();
+            if (stage > mGovernedStage)
+                intervene(stage);
+            mWorker.postDelayed(this, GOVERN_INTERVAL_MILLIS);
+        }
+    };
+
+    private final Runnable mRelease = new Runnable() {
+        @Override
+        public void run() {
+            Log.v(TAG, "Retention period is over");
+            releaseOnWorker();
+        }
+    };
+
+    private TorchExecutor(Context context, TorchGovernor governor) {
+        mContext = context;
+        mGovernor = governor;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mWorker = new Handler(mThread.getLooper());
+        // first thing on the worker, so that everything queued after it finds the camera device
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                createCameraDevice();
+                mJournal = TorchJournal.open(mContext);
+            }
+        });
+    }
+
+    private void createCameraDevice() {
+        mCameraDevice = new CameraDevice(mContext, getCapabilities());
+
+        mCameraDevice.setPatternListener(new StrobeEngine.Listener() {
+            @Override
+            public void onPatternFinished() {
+                synchronized (mLock) {
+                    if (!mIsApplyPending)
+                        mTargetOn = false;
+                }
+                mWorker.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mIsStrobing = false;
+                        stopGoverning();
+                        journalState(false, Trigger.PATTERN);
+                    }
+                });
+                postTorchState(true, false);
+            }
+        });
+
+        mCameraDevice.setOnCameraLostListener(new CameraDevice.OnCameraLostListener() {
+            @Override
+            public void onCameraLost(final int error) {
+                TorchTrace.mark(TorchTrace.CAMERA_LOST, error);
+                mWorker.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mIsAcquired)
+                            return;
+                        // someone else wants the camera; let go of it at once
+                        mLostCount++;
+                        Log.w(TAG, "Camera lost; releasing it (" + mLostCount + " time(s) so far)");
+                        mJournal.recordCameraLost(error);
+                        journalState(false, Trigger.LOST);
+                        boolean wasOn = mCameraDevice.isFlashlightOn();
+                        releaseOnWorker();
+                        if (wasOn)
+                            postTorchState(true, false);
+                        mMain.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                for (Listener listener : mListeners)
+                                    listener.onCameraLost();
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Borrow the process-wide executor, creating it if nobody else has it.
+     * Every call must be matched by a giveBack().
+     */
+    public static synchronized TorchExecutor borrow(Context context) {
+        if (sInstance == null) {
+            Log.v(TAG, "Creating the process-wide torch executor");
+            Context app = context.getApplicationContext();
+            sInstance = new TorchExecutor(app, new TorchGovernor(app));
+        }
+        sBorrowers++;
+        return sInstance;
+    }
+
+    /**
+     * Give back a borrowed executor. Once the last borrower gives it back,
+     * it releases everything and terminates its worker thread.
+     */
+    public void giveBack() {
+        synchronized (TorchExecutor.class) {
+            assert (sInstance == this && sBorrowers > 0);
+            if (--sBorrowers > 0)
+                return;
+            sInstance = null;
+        }
+        Log.v(TAG, "Last borrower gone; quitting the torch executor");
+        quit();
+    }
+
+    /**
+     * Register a listener for torch state changes, whoever causes them. A
+     * listener attaching late should query isTorchOn() for the current state.
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @return whether the torch can be switched without opening the camera,
+     *         so that no preview (nor a service to host one) is needed; going
+     *         by what was probed before, so that the caller need not wait for
+     *         the camera device to be set up
+     */
+    public boolean canSwitchDirectly() {
+        if (Build.VERSION.SDK_INT < CameraManagerCompat.VERSION_CODES_M)
+            return false;
+        String strategy = getCapabilities().getLastStrategy();
+        return (strategy == null || TorchCapabilities.STRATEGY_SYSTEM.equals(strategy));
+    }
+
+    private TorchCapabilities getCapabilities() {
+        synchronized (mCapabilitiesLock) {
+            if (mCapabilities == null)
+                mCapabilities = new TorchCapabilities(mContext);
+            return mCapabilities;
+        }
+    }
+
+    /**
+     * Whether to give the camera an offscreen SurfaceTexture to preview into
+     * as soon as it is acquired (API 11+), instead of waiting for someone to
+     * call setPreviewDisplay(). Must be set before acquireCamera().
+     */
+    public void setOffscreenPreview(final boolean offscreen) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                mUseOffscreenPreview = offscreen;
+            }
+        });
+    }
+
+    /**
+     * @param percent how bright the steady torch is, the next time it is turned on
+     */
+    public void setBrightness(final int percent) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mSavedPattern != null)
+                    mSavedBrightness = percent;     // for after the governed session
+                else
+                    mCameraDevice.setBrightness(percent);
+            }
+        });
+    }
+
+    public void setStrobePattern(final LightPattern pattern) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mSavedPattern != null)
+                    mSavedPattern = pattern;
+                else
+                    mCameraDevice.setStrobePattern(pattern);
+            }
+        });
+    }
+
+    public void setMusicStrobe(final boolean music) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                mCameraDevice.setMusicStrobe(music);
+            }
+        });
+    }
+
+    /**
+     * @param message what strobing sends in Morse code instead of playing
+     *                the pattern; null to play the pattern
+     * @param wpm the speed, in words per minute
+     * @param repeats how many times to send it, or LightPattern.REPEAT_FOREVER
+     * @see CameraDevice#setMorseMessage(CharSequence, int, int)
+     */
+    public void setMorseMessage(final CharSequence message, final int wpm, final int repeats) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                mCameraDevice.setMorseMessage(message, wpm, repeats);
+            }
+        });
+    }
+
+    /**
+     * @return what is sending the Morse message, or sent the last one, to
+     *         query its measured speed; null if none was sent yet
+     */
+    public MorseTransmitter getMorseTransmitter() {
+        CameraDevice cameraDevice = mCameraDevice;
+        return (cameraDevice != null) ? cameraDevice.getMorseTransmitter() : null;
+    }
+
+    /**
+     * @return the torch state the commands submitted so far resolve to
+     */
+    public boolean isTorchOn() {
+        synchronized (mLock) {
+            return mTargetOn;
+        }
+    }
+
+    /**
+     * @return whether, after acquisition, the camera still needs a preview
+     *         surface from setPreviewDisplay() (i.e. it can neither do
+     *         without one nor preview offscreen)
+     */
+    public boolean needsPreviewSurface() {
+        return mNeedsPreviewSurface;
+    }
+
+    /**
+     * @return how many acquisitions were served by a retained camera
+     */
+    public int getReuseCount() {
+        return mReuseCount;
+    }
+
+    /**
+     * @return how many acquisitions had to actually open the camera
+     */
+    public int getReopenCount() {
+        return mReopenCount;
+    }
+
+    /**
+     * Print our counters and the camera device's latency record. Reads
+     * them as they are, without waiting on the worker, so that a dump never
+     * hangs behind a slow camera operation.
+     */
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "Torch " + (isTorchOn() ? "on" : "off") + ", camera opened "
+                + mReopenCount + " time(s), reused " + mReuseCount + " time(s), lost "
+                + mLostCount + " time(s)");
+        mReadyLatency.dump(pw, prefix + "  ");
+        mFirstLightLatency.dump(pw, prefix + "  ");
+        CameraDevice cameraDevice = mCameraDevice;
+        if (cameraDevice != null)
+            cameraDevice.dump(pw, prefix + "  ");
+        mGovernor.dump(pw, prefix + "  ");
+        TorchJournal journal = mJournal;
+        if (journal != null)
+            journal.dump(pw, prefix + "  ", false);
+        pw.println(prefix + "Recent torch events:");
+        TorchTrace.dump(pw, prefix + "  ");
+    }
+
+    /**
+     * Time the launch of a component that is about to acquire the camera,
+     * from when it started until the camera and its preview are both up,
+     * or until the first light if it is asked for before then. Call just
+     * before acquireCamera(), so that the layout can inflate meanwhile.
+     *
+     * @param component who is launching, for the log
+     * @param startUptime when the component started, in uptime millis
+     */
+    public void markLaunch(final String component, final long startUptime) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                mLaunchTime = startUptime;
+                mLaunchedBy = component;
+                mCameraReadyTime = 0;
+            }
+        });
+    }
+
+    /**
+     * Print every record the journal still holds.
+     */
+    public void dumpJournal(PrintWriter pw, String prefix) {
+        TorchJournal journal = mJournal;
+        if (journal == null) {
+            pw.println(prefix + "Journal not opened yet");
+            return;
+        }
+        journal.dump(pw, prefix, true);
+    }
+
+    /**
+     * Merge a command into the pending ones and make sure a transition to
+     * the resulting state is queued.
+     *
+     * @param trigger what the command came from, for the journal; of
+     *        merged commands, the latest one's is kept
+     */
+    public void submit(Command command, Trigger trigger) {
+        TorchTrace.mark(TorchTrace.SUBMIT, command.ordinal());
+        synchronized (mLock) {
+            mSubmitted++;
+            mTrigger = trigger;
+            switch (command) {
+            case ON:
+                mTargetOn = true;
+                mTargetStrobe = false;
+                break;
+            case OFF:
+                mTargetOn = false;
+                break;
+            case TOGGLE:
+            case STROBE:
+                mTargetOn = !mTargetOn;
+                mTargetStrobe = (command == Command.STROBE);
+                break;
+            }
+            Log.v(TAG, "Command " + command + " -> torch " + (mTargetOn ? "on" : "off")
+                    + (mTargetOn && mTargetStrobe ? " (strobing)" : ""));
+
+            if (!mIsApplyPending) {
+                mIsApplyPending = true;
+                mWorker.post(mApply);
+            }
+        }
+    }
+
+    /**
+     * Take a share of the camera, acquiring it on the worker thread if
+     * nobody holds it yet (or taking back the one still retained).
+     * 
+     * @param requester told the outcome
+     */
+    public void acquireCamera(final Listener requester) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                mHolders++;
+                if (mIsAcquired && !mIsRetaining) {
+                    Log.v(TAG, "Camera already held; now by " + mHolders);
+                } else if (mIsRetaining) {
+                    mWorker.removeCallbacks(mRelease);
+                    mIsRetaining = false;
+                    mReuseCount++;
+                    Log.v(TAG, "Reusing retained camera");
+                } else {
+                    mAcquireTime = SystemClock.uptimeMillis();
+                    TorchTrace.begin(TorchTrace.ACQUIRE);
+                    mIsAcquired = mCameraDevice.acquireCamera();
+                    TorchTrace.end(TorchTrace.ACQUIRE);
+                    if (!mIsAcquired)
+                        mJournal.recordAcquireFailure();
+                    mNeedsPreviewSurface = mIsAcquired && mCameraDevice.requiresPreview();
+                    if (mNeedsPreviewSurface && mUseOffscreenPreview) {
+                        startOffscreenPreview();
+                    }
+                    if (mIsAcquired)
+                        mReopenCount++;
+                }
+                Log.v(TAG, "Camera reused " + mReuseCount + " time(s), opened " + mReopenCount + " time(s)");
+
+                final boolean success = mIsAcquired;
+                if (mLaunchTime != 0) {
+                    if (success) {
+                        mCameraReadyTime = SystemClock.uptimeMillis();
+                        endLaunchIfReady();
+                    } else {
+                        mLaunchTime = 0;
+                    }
+                }
+                mMain.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        requester.onCameraAcquired(success);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Give up a share of the camera. If it was the last one, turn the torch
+     * off and release the camera. Blocks until done, so that the camera is
+     * free for others by the time this returns.
+     */
+    public void releaseCamera() {
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                if (dropHolder())
+                    releaseOnWorker();
+            }
+        });
+    }
+
+    /**
+     * @return whether that was the last share of the camera
+     */
+    private boolean dropHolder() {
+        if (mHolders > 0)
+            mHolders--;
+        Log.v(TAG, "Camera now held by " + mHolders);
+        return (mHolders == 0);
+    }
+
+    /**
+     * Give up a share of the camera like releaseCamera(), but if it was the
+     * last one, keep the camera and its preview for the given grace period
+     * before releasing it; acquireCamera() within that period takes it back
+     * as is. The camera is released early should another application claim it.
+     * 
+     * @param graceMillis the retention period; zero or less releases right away
+     */
+    public void releaseCameraLater(final long graceMillis) {
+        if (graceMillis <= 0) {
+            releaseCamera();
+            return;
+        }
+
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!dropHolder() || !mIsAcquired)
+                    return;
+                Log.v(TAG, "Retaining camera for " + graceMillis + " ms");
+                mIsRetaining = true;
+                keepPreviewWarm();
+                mWorker.postDelayed(mRelease, graceMillis);
+            }
+        });
+    }
+
+    /**
+     * Hand the camera a freshly created preview surface and start previewing;
+     * any transition waiting for the preview goes ahead afterwards.
+     */
+    public void setPreviewDisplay(final SurfaceHolder holder) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mIsAcquired)
+                    return;
+                if (mPreviewTexture != null) {
+                    // switch over from the texture that kept the preview warm
+                    mCameraDevice.stopPreview();
+                    releasePreviewTexture();
+                }
+                mCameraDevice.setPreviewDisplayAndStartPreview(holder);
+                postPreviewReady("surface");
+            }
+        });
+    }
+
+    /**
+     * Stop previewing into a surface that is about to be destroyed. Blocks
+     * until done, as the surface is invalid once its callback returns.
+     */
+    public void clearPreviewDisplay() {
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mCameraDevice.stopPreview();
+                mIsPreviewReady = false;
+                // the camera may well outlive this surface (retained, or
+                // held by another borrower); keep previewing offscreen
+                if (mIsAcquired)
+                    keepPreviewWarm();
+            }
+        });
+    }
+
+    /**
+     * Release everything and terminate the worker thread. The executor
+     * cannot be used afterwards.
+     */
+    private void quit() {
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mHolders = 0;
+                releaseOnWorker();
+            }
+        });
+        mThread.quit();
+    }
+
+    private boolean apply(boolean on, boolean strobe) {
+        boolean isOn = mCameraDevice.isFlashlightOn();
+        if (on == isOn && (!on || strobe == mIsStrobing)) {
+            Log.v(TAG, "Torch already " + (on ? "on" : "off") + "; nothing to do");
+            return true;
+        }
+
+        mTransitions++;
+        Log.v(TAG, mSubmitted + " command(s) submitted, " + mTransitions + " transition(s) made");
+        // whatever is lit goes off first, also when switching between steady and strobing
+        if (isOn && !mCameraDevice.toggleCameraLED(false, mIsStrobing))
+            return false;
+        mIsStrobing = false;
+        if (!on)
+            return true;
+        if (!mCameraDevice.toggleCameraLED(true, strobe))
+            return false;
+        mIsStrobing = strobe;
+        return true;
+    }
+
+    /**
+     * Act on what the governor found; only ever escalates within a session.
+     */
+    private void intervene(int stage) {
+        if (stage == TorchGovernor.STAGE_SHUT_OFF) {
+            mGovernor.record("Ending the torch session");
+            mGovernedStage = stage;
+            submit(Command.OFF, Trigger.GOVERNOR);
+            return;
+        }
+
+        mSavedBrightness = mCameraDevice.getBrightness();
+        mSavedPattern = mCameraDevice.getStrobePattern();
+        int brightness = Math.max(1, mSavedBrightness * TorchGovernor.STEP_DOWN_PERCENT / 100);
+        mCameraDevice.setBrightness(brightness);
+        mCameraDevice.setStrobePattern(mSavedPattern.dimmed(TorchGovernor.STEP_DOWN_PERCENT));
+        mGovernedStage = stage;
+        if (mIsStrobing && mCameraDevice.isSendingMorse()) {
+            // Morse timing cannot be cut, and relighting would start the
+            // message over; let it play out as it is
+            mGovernor.record("Not stepping down a Morse message");
+            return;
+        }
+        mGovernor.record("Stepping down: " + (mIsStrobing
+                ? "strobe flashes cut to " + TorchGovernor.STEP_DOWN_PERCENT + "%"
+                : "brightness " + mSavedBrightness + "% -> " + brightness + "%"));
+
+        // light it up again with the reduced settings
+        mCameraDevice.toggleCameraLED(false, mIsStrobing);
+        if (!mCameraDevice.toggleCameraLED(true, mIsStrobing)) {
+            Log.e(TAG, "Cannot relight the torch after stepping down");
+            submit(Command.OFF, Trigger.GOVERNOR);
+        }
+    }
+
+    private void stopGoverning() {
+        mWorker.removeCallbacks(mGovern);
+        mIsGoverning = false;
+        if (mGovernedStage == TorchGovernor.STAGE_NORMAL)
+            return;
+        if (mSavedPattern != null) {
+            mCameraDevice.setBrightness(mSavedBrightness);
+            mCameraDevice.setStrobePattern(mSavedPattern);
+            mSavedPattern = null;
+        }
+        mGovernedStage = TorchGovernor.STAGE_NORMAL;
+        mGovernor.record("Session over; settings restored");
+    }
+
+    private void releaseOnWorker() {
+        journalState(false, Trigger.RELEASE);
+        stopGoverning();
+        mWorker.removeCallbacks(mRelease);
+        mIsRetaining = false;
+        mWorker.removeCallbacks(mApply);
+        synchronized (mLock) {
+            mIsApplyPending = false;
+            mTargetOn = false;
+        }
+        mIsDeferred = false;
+        mIsStrobing = false;
+        mIsPreviewReady = false;
+        mIsAcquired = false;
+        mLaunchTime = 0;
+        mCameraDevice.releaseCamera();
+        releasePreviewTexture();
+    }
+
+    /**
+     * Journal the torch going on or off, if it did.
+     */
+    private void journalState(boolean on, Trigger trigger) {
+        if (on == (mLitSince != 0))
+            return;
+        long now = SystemClock.uptimeMillis();
+        if (on) {
+            mLitSince = now;
+            mJournal.recordOn(trigger);
+        } else {
+            mJournal.recordOff(trigger, now - mLitSince);
+            mLitSince = 0;
+        }
+    }
+
+    private void postPreviewReady(String via) {
+        TorchTrace.mark(TorchTrace.PREVIEW_READY, 0);
+        mIsPreviewReady = true;
+        mNeedsPreviewSurface = false;
+        Log.i(TAG, "Preview ready on " + via + " "
+                + (SystemClock.uptimeMillis() - mAcquireTime) + " ms after acquisition");
+        if (mIsDeferred) {
+            mIsDeferred = false;
+            mApply.run();
+        }
+        endLaunchIfReady();
+    }
+
+    /**
+     * End the launch being timed once the camera and its preview are both
+     * up, unless the torch was asked to light meanwhile; mApply then ends it
+     * at the first light instead.
+     */
+    private void endLaunchIfReady() {
+        if (mLaunchTime == 0 || mCameraReadyTime == 0)
+            return;
+        if (!mIsPreviewReady && mCameraDevice.requiresPreview())
+            return;
+        boolean isLightWanted;
+        synchronized (mLock) {
+            isLightWanted = mTargetOn;
+        }
+        if (isLightWanted && !mCameraDevice.isFlashlightOn())
+            return;
+        endLaunch(false);
+    }
+
+    private void endLaunch(boolean lit) {
+        long elapsed = SystemClock.uptimeMillis() - mLaunchTime;
+        Log.i(TAG, "Time to " + (lit ? "first light" : "ready") + " for " + mLaunchedBy
+                + ": " + elapsed + " ms (camera up after " + (mCameraReadyTime - mLaunchTime) + " ms)");
+        (lit ? mFirstLightLatency : mReadyLatency).record(elapsed * 1000);
+        mLaunchTime = 0;
+    }
+
+    /**
+     * While retaining the camera without a preview surface, preview into an
+     * offscreen texture instead so the preview need not restart later.
+     */
+    private void keepPreviewWarm() {
+        if (mCameraDevice.requiresPreview() && !mIsPreviewReady)
+            startOffscreenPreview();
+    }
+
+    @SuppressLint("NewApi")
+    private void startOffscreenPreview() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB)
+            return;
+
+        mPreviewTexture = new SurfaceTexture(0);
+        if (!mCameraDevice.setPreviewTextureAndStartPreview(mPreviewTexture)) {
+            Log.w(TAG, "Camera rejected the offscreen texture; a preview surface is needed");
+            releasePreviewTexture();
+            return;
+        }
+        postPreviewReady("offscreen texture");
+    }
+
+    @SuppressLint("NewApi")
+    private void releasePreviewTexture() {
+        if (mPreviewTexture != null) {
+            mPreviewTexture.release();
+            mPreviewTexture = null;
+        }
+    }
+
+    private void postTorchState(final boolean success, final boolean on) {
+        mMain.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : mListeners)
+                    listener.onTorchStateChanged(success, on);
+            }
+        });
+    }
+
+
+    private void runAndWait(final Runnable task) {
+        if (Looper.myLooper() == mThread.getLooper()) {
+            task.run();
+            return;
+        }
+
+        final CountDownLatch done = new CountDownLatch(1);
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                task.run();
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "InterruptedException: " + e.getLocalizedMessage());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.util.Date;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.util.Log;
+
+/**
+ * Keeps long torch and strobe sessions from overheating the device or
+ * draining its battery flat, by reading the battery's temperature and
+ * charge off the sticky ACTION_BATTERY_CHANGED intent (no receiver is
+ * registered; the system just hands back its last broadcast).
+ *
+ * Within a few degrees of the temperature limit, or at the battery limit,
+ * the torch should step down (dimmer, shorter strobe flashes); at the
+ * temperature limit, or with the battery nearly empty, the session should
+ * end. Battery level is not held against a device that is plugged in. The
+ * limits are user preferences, taken from the current TorchPreferences on
+ * every check. Every intervention is logged, and the most recent ones kept
+ * for dump().
+ */
+public class TorchGovernor {
+
+    private static final String TAG = TorchGovernor.class.getSimpleName();
+
+    public static final int STAGE_NORMAL = 0;
+    public static final int STAGE_STEP_DOWN = 1;
+    public static final int STAGE_SHUT_OFF = 2;
+
+    /** How much to dim, in percent, when stepping down. */
+    public static final int STEP_DOWN_PERCENT = 50;
+
+    private static final int STEP_DOWN_MARGIN = 3;      // degrees Celsius below the limit
+    private static final int INTERVENTIONS_KEPT = 16;
+
+    private final Context mContext;
+    private final IntentFilter mBatteryFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+
+    private float mTemperature;     // degrees Celsius, as of the last check
+    private int mBatteryLevel = -1; // percent, as of the last check
+    private boolean mIsPlugged;
+
+    private final String[] mInterventions = new String[INTERVENTIONS_KEPT];
+    private int mInterventionCount;
+
+    public TorchGovernor(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Read the battery's state and decide what the torch should do.
+     * 
+     * @return one of the STAGE_* constants
+     */
+    public int check() {
+        TorchPreferences pref = TorchPreferences.get(mContext);
+        if (!pref.isGovernor())
+            return STAGE_NORMAL;
+        int maxTemperature = pref.getMaxTemperature();
+        int minBattery = pref.getMinBattery();
+
+        Intent battery = mContext.registerReceiver(null, mBatteryFilter);
+        if (battery == null) {
+            Log.w(TAG, "No battery state to go by");
+            return STAGE_NORMAL;
+        }
+        mTemperature = battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0) / 10f;
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+        mBatteryLevel = (level >= 0 && scale > 0) ? 100 * level / scale : -1;
+        mIsPlugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+
+        boolean countBattery = !mIsPlugged && mBatteryLevel >= 0;
+        if (mTemperature >= maxTemperature
+                || (countBattery && mBatteryLevel <= Math.max(1, minBattery / 3)))
+            return STAGE_SHUT_OFF;
+        if (mTemperature >= maxTemperature - STEP_DOWN_MARGIN
+                || (countBattery && mBatteryLevel <= minBattery))
+            return STAGE_STEP_DOWN;
+        return STAGE_NORMAL;
+    }
+
+    /**
+     * @return the battery's state as of the last check, for the record
+     */
+    public String describeBattery() {
+        return "battery at " + mTemperature + " C, "
+                + (mBatteryLevel >= 0 ? mBatteryLevel + "%" : "unknown charge")
+                + (mIsPlugged ? " (plugged in)" : "");
+    }
+
+    /**
+     * Log an intervention, and keep it (time stamped) for dump().
+     */
+    public void record(String intervention) {
+        String entry = DateFormat.getDateTimeInstance().format(new Date()) + ": "
+                + intervention + "; " + describeBattery();
+        Log.i(TAG, entry);
+        synchronized (mInterventions) {
+            mInterventions[mInterventionCount % INTERVENTIONS_KEPT] = entry;
+            mInterventionCount++;
+        }
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        synchronized (mInterventions) {
+            pw.println(prefix + "Governor: " + mInterventionCount + " intervention(s), "
+                    + describeBattery());
+            int first = Math.max(0, mInterventionCount - INTERVENTIONS_KEPT);
+            for (int i = first; i < mInterventionCount; i++)
+                pw.println(prefix + "  " + mInterventions[i % INTERVENTIONS_KEPT]);
+        }
+    }
+
+}
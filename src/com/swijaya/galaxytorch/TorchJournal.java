@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.swijaya.galaxytorch.util.MappedJournal;
+
+/**
+ * The torch's history across sessions: when it went on and off, for how
+ * long, what switched it, and what failed. Kept in a MappedJournal under
+ * the app's files dir, so that recording costs next to nothing on the
+ * worker thread; read back with
+ *
+ *     adb shell dumpsys activity service com.swijaya.galaxytorch/.GalaxyTorchService journal
+ */
+public class TorchJournal {
+
+    private static final String TAG = TorchJournal.class.getSimpleName();
+
+    private static final String FILE_NAME = "torch.journal";
+    private static final int CAPACITY = 1024;   // records, of 32 bytes each
+
+    public static final int TYPE_ON = 1;                // arg: trigger
+    public static final int TYPE_OFF = 2;               // arg: trigger, value: ms it was on
+    public static final int TYPE_FAILED = 3;            // arg: trigger, value: 1 if it was to go on
+    public static final int TYPE_ACQUIRE_FAILED = 4;
+    public static final int TYPE_CAMERA_LOST = 5;       // value: the camera's error code
+
+    private static final TorchExecutor.Trigger[] TRIGGERS = TorchExecutor.Trigger.values();
+
+    private final MappedJournal mJournal;   // null if the file could not be mapped
+
+    private TorchJournal(MappedJournal journal) {
+        mJournal = journal;
+    }
+
+    /**
+     * @return the journal; one that records nothing should the file not
+     *         be usable, as the torch must work regardless
+     */
+    public static TorchJournal open(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        try {
+            return new TorchJournal(new MappedJournal(file, CAPACITY));
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot map " + file + ": " + e.getLocalizedMessage());
+            return new TorchJournal(null);
+        }
+    }
+
+    public void recordOn(TorchExecutor.Trigger trigger) {
+        append(TYPE_ON, trigger.ordinal(), 0);
+    }
+
+    public void recordOff(TorchExecutor.Trigger trigger, long litMillis) {
+        append(TYPE_OFF, trigger.ordinal(), litMillis);
+    }
+
+    public void recordFailure(TorchExecutor.Trigger trigger, boolean wasToGoOn) {
+        append(TYPE_FAILED, trigger.ordinal(), wasToGoOn ? 1 : 0);
+    }
+
+    public void recordAcquireFailure() {
+        append(TYPE_ACQUIRE_FAILED, 0, 0);
+    }
+
+    public void recordCameraLost(int error) {
+        append(TYPE_CAMERA_LOST, 0, error);
+    }
+
+    private void append(int type, int arg, long value) {
+        if (mJournal != null)
+            mJournal.append(type, arg, value);
+    }
+
+    /**
+     * Print what the journal holds: a summary, and every record if asked.
+     */
+    public void dump(final PrintWriter pw, final String prefix, final boolean records) {
+        if (mJournal == null) {
+            pw.println(prefix + "Journal: not available");
+            return;
+        }
+
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        final long[] totals = new long[3];  // sessions, ms lit, failures
+        mJournal.read(new MappedJournal.Visitor() {
+            @Override
+            public void visit(long sequence, long timeMillis, int type, int arg, long value) {
+                String trigger = (arg >= 0 && arg < TRIGGERS.length) ? TRIGGERS[arg].toString() : "?";
+                String event;
+                switch (type) {
+                case TYPE_ON:
+                    event = "on by " + trigger;
+                    break;
+                case TYPE_OFF:
+                    totals[0]++;
+                    totals[1] += value;
+                    event = "off by " + trigger + " after " + value + " ms";
+                    break;
+                case TYPE_FAILED:
+                    totals[2]++;
+                    event = "FAILED to turn " + (value != 0 ? "on" : "off") + " for " + trigger;
+                    break;
+                case TYPE_ACQUIRE_FAILED:
+                    totals[2]++;
+                    event = "FAILED to acquire the camera";
+                    break;
+                case TYPE_CAMERA_LOST:
+                    event = "camera lost (error " + value + ")";
+                    break;
+                default:
+                    event = "unknown record " + type;
+                    break;
+                }
+                if (records)
+                    pw.println(prefix + "  #" + sequence + " " + format.format(new Date(timeMillis)) + " " + event);
+            }
+        });
+        pw.println(prefix + "Journal: " + mJournal.getAppendCount() + " record(s) ever; of those kept, "
+                + totals[0] + " session(s) lit for " + totals[1] / 1000 + " s in all, "
+                + totals[2] + " failure(s)");
+    }
+
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.util.concurrent.CountDownLatch;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.swijaya.galaxytorch.util.ClipboardManagerWrapper;
+
+/**
+ * An immutable snapshot of the user's preferences, parsed once.
+ *
+ * The first snapshot is loaded on a background thread (see preload(),
+ * called as the process starts), defaults included, so that neither the
+ * preference file nor preferences.xml are read on the main thread. From
+ * then on, a change listener replaces the snapshot whenever a preference
+ * changes, and everyone reads whichever snapshot is current through get().
+ */
+public class TorchPreferences {
+
+    private static final String TAG = TorchPreferences.class.getSimpleName();
+
+    private static volatile TorchPreferences sSnapshot;
+    private static final CountDownLatch sLoaded = new CountDownLatch(1);
+    private static boolean sIsLoading;
+
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences pref, String key) {
+            Log.v(TAG, "Preference " + key + " changed");
+            sSnapshot = new TorchPreferences(pref);
+        }
+    };
+
+    private final boolean mOnAtStart;
+    private final boolean mDimScreen;
+    private final boolean mUseVolumeRocker;
+    private final boolean mStrobe;
+    private final boolean mMusicStrobe;
+    private final LightPattern mStrobePattern;
+    private final boolean mMorse;
+    private final String mMorseText;
+    private final int mMorseWpm;
+    private final int mMorseRepeats;
+    private final int mBrightness;
+    private final boolean mUseBritishSwitch;
+    private final boolean mHandOff;
+    private final int mRetention;
+    private final int mStandby;
+    private final boolean mGovernor;
+    private final int mMaxTemperature;
+    private final int mMinBattery;
+
+    private TorchPreferences(SharedPreferences pref) {
+        mOnAtStart = pref.getBoolean("onstart", false);
+        mDimScreen = pref.getBoolean("dimscreen", true);
+        mUseVolumeRocker = pref.getBoolean("userocker", false);
+        mStrobe = pref.getBoolean("strobe", false);
+        mMusicStrobe = pref.getBoolean("musicstrobe", false);
+        mStrobePattern = compileStrobePattern(pref);
+        mMorse = LightPattern.MORSE.equals(pref.getString("pattern", LightPattern.STROBE));
+        mMorseText = pref.getString("morsetext", "");
+        mMorseWpm = Integer.parseInt(pref.getString("morsewpm",
+                String.valueOf(MorseEncoder.DEFAULT_WPM)));
+        // unlike a pattern, a message is sent once unless asked otherwise
+        mMorseRepeats = Integer.parseInt(pref.getString("morserepeats", "1"));
+        mBrightness = Integer.parseInt(pref.getString("brightness", "100"));
+        mUseBritishSwitch = pref.getBoolean("usebritswitch", false);
+        mHandOff = pref.getBoolean("handoff", true);
+        mRetention = Integer.parseInt(pref.getString("retention", "10"));
+        mStandby = Integer.parseInt(pref.getString("standby", "0"));
+        mGovernor = pref.getBoolean("governor", true);
+        mMaxTemperature = Integer.parseInt(pref.getString("maxtemperature", "45"));
+        mMinBattery = Integer.parseInt(pref.getString("minbattery", "15"));
+    }
+
+    /**
+     * Start loading the first snapshot in the background, if nobody has.
+     */
+    public static void preload(Context context) {
+        final Context app = context.getApplicationContext();
+        synchronized (TorchPreferences.class) {
+            if (sIsLoading)
+                return;
+            sIsLoading = true;
+        }
+
+        new Thread(TAG) {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                PreferenceManager.setDefaultValues(app, R.xml.preferences, false);
+                SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(app);
+                pref.registerOnSharedPreferenceChangeListener(sListener);
+                sSnapshot = new TorchPreferences(pref);
+                sLoaded.countDown();
+                Log.v(TAG, "Preferences loaded in " + (System.nanoTime() - start) / 1000 + " us");
+            }
+        }.start();
+    }
+
+    /**
+     * @return the current snapshot; waits for the first one to load if it
+     *         has not yet
+     */
+    public static TorchPreferences get(Context context) {
+        TorchPreferences snapshot = sSnapshot;
+        if (snapshot != null)
+            return snapshot;
+
+        preload(context);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                sLoaded.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return sSnapshot;
+    }
+
+    private static LightPattern compileStrobePattern(SharedPreferences pref) {
+        String name = pref.getString("pattern", LightPattern.STROBE);
+        int repeats = Integer.parseInt(pref.getString("patternrepeats",
+                String.valueOf(LightPattern.REPEAT_FOREVER)));
+
+        LightPattern pattern;
+        if (LightPattern.SOS.equals(name)) {
+            pattern = LightPattern.sos();
+        } else if (LightPattern.BEACON.equals(name)) {
+            pattern = LightPattern.beacon();
+        } else if (LightPattern.CUSTOM.equals(name)) {
+            try {
+                pattern = LightPattern.custom(pref.getString("custompattern", ""));
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Invalid custom pattern: " + e.getLocalizedMessage());
+                pattern = LightPattern.strobe(LightPattern.DEFAULT_FREQUENCY,
+                        LightPattern.DEFAULT_DUTY_CYCLE);
+            }
+        } else {
+            // also what the Morse pattern falls back to, with nothing to send
+            int frequency = Integer.parseInt(pref.getString("strobefreq",
+                    String.valueOf(LightPattern.DEFAULT_FREQUENCY)));
+            int dutyCycle = Integer.parseInt(pref.getString("strobeduty",
+                    String.valueOf(LightPattern.DEFAULT_DUTY_CYCLE)));
+            pattern = LightPattern.strobe(frequency, dutyCycle);
+        }
+        return pattern.repeat(repeats);
+    }
+
+    /** Whether we turn on the flashlight at activity start. */
+    public boolean isOnAtStart() {
+        return mOnAtStart;
+    }
+
+    /** Whether we dim the screen when the flashlight is on. */
+    public boolean isDimScreen() {
+        return mDimScreen;
+    }
+
+    /** Whether we use the volume rocker key event as flashlight toggle. */
+    public boolean isUseVolumeRocker() {
+        return mUseVolumeRocker;
+    }
+
+    /** Whether the switch toggles strobe flashlight. */
+    public boolean isStrobe() {
+        return mStrobe;
+    }
+
+    /** Whether the strobe flashes to the beat the microphone picks up. */
+    public boolean isMusicStrobe() {
+        return mMusicStrobe;
+    }
+
+    /** The light pattern the strobe plays. */
+    public LightPattern getStrobePattern() {
+        return mStrobePattern;
+    }
+
+    /** Whether the strobe sends a message in Morse code. */
+    public boolean isMorse() {
+        return mMorse;
+    }
+
+    /**
+     * The message the strobe sends in Morse code instead of playing the
+     * pattern: the one set in the preferences, or else whatever text is on
+     * the clipboard right now (which only the app in focus may read).
+     *
+     * @return null unless the Morse pattern is chosen
+     */
+    public CharSequence getMorseMessage(Context context) {
+        if (!mMorse)
+            return null;
+        if (mMorseText.trim().length() > 0)
+            return mMorseText;
+        return ClipboardManagerWrapper.getText(context);
+    }
+
+    /** How fast (in words per minute) Morse code is sent. */
+    public int getMorseWpm() {
+        return mMorseWpm;
+    }
+
+    /** How many times a Morse message is sent, or LightPattern.REPEAT_FOREVER. */
+    public int getMorseRepeats() {
+        return mMorseRepeats;
+    }
+
+    /** How bright (in percent) the steady torch is. */
+    public int getBrightness() {
+        return mBrightness;
+    }
+
+    /** Whether we use the "British switch" modality for our button's sprite. */
+    public boolean isUseBritishSwitch() {
+        return mUseBritishSwitch;
+    }
+
+    /** Whether a lit torch stays lit, in the service's hands, after the activity is left. */
+    public boolean isHandOff() {
+        return mHandOff;
+    }
+
+    /** How long (in seconds) we keep the camera after the activity stops. */
+    public int getRetention() {
+        return mRetention;
+    }
+
+    /** How long (in seconds) the service stays ready after the torch goes off; 0 if not at all. */
+    public int getStandby() {
+        return mStandby;
+    }
+
+    /** Whether TorchGovernor may dim or end a session. */
+    public boolean isGovernor() {
+        return mGovernor;
+    }
+
+    /** The battery temperature (Celsius) at which the governor ends a session. */
+    public int getMaxTemperature() {
+        return mMaxTemperature;
+    }
+
+    /** The battery charge (percent) at which the governor steps down. */
+    public int getMinBattery() {
+        return mMinBattery;
+    }
+
+    @Override
+    public String toString() {
+        return "onstart=" + mOnAtStart + " dimscreen=" + mDimScreen
+                + " userocker=" + mUseVolumeRocker + " strobe=" + mStrobe
+                + " musicstrobe=" + mMusicStrobe + " morse=" + mMorse + "/" + mMorseWpm + "x" + mMorseRepeats
+                + " brightness=" + mBrightness + " usebritswitch=" + mUseBritishSwitch
+                + " handoff=" + mHandOff + " retention=" + mRetention
+                + " standby=" + mStandby
+                + " governor=" + mGovernor + "/" + mMaxTemperature + "C/" + mMinBattery + "%";
+    }
+
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * The torch control API GalaxyTorchService offers to bound clients, over a
+ * Messenger: a client holds the connection and sends commands, singly or
+ * in timed batches, each in one IPC, and hears about every change to the
+ * torch state on the same channel.
+ *
+ * Messages (what, arg1, arg2, data) a client sends:
+ *
+ *     MSG_REGISTER    -         -      -       replyTo hears MSG_STATE from now on
+ *     MSG_UNREGISTER  -         -      -       replyTo no longer does
+ *     MSG_COMMAND     command   token  -       one of the COMMAND_ constants
+ *     MSG_BATCH       -         token  KEY_COMMANDS, and optionally KEY_DELAYS
+ *
+ * A command or batch with a replyTo is answered with MSG_RESULT (arg1 the
+ * token, arg2 how many commands were accepted, or -1 if it was malformed).
+ * A batch's commands run in order, each KEY_DELAYS[i] ms after the one
+ * before it (or right away, without delays). MSG_STATE carries the torch
+ * state (arg1, 1 if on) and whether the hardware did as asked (arg2).
+ * Commands submitted in quick succession are merged by the executor as
+ * they are from any other source.
+ *
+ * Messages are handled on a thread of our own, never the main one, so that
+ * a client in the service's own process may block on a reply from the main
+ * thread (or any other) without deadlocking.
+ */
+public class TorchRemote implements Handler.Callback {
+
+    public static final int MSG_REGISTER = 1;
+    public static final int MSG_UNREGISTER = 2;
+    public static final int MSG_COMMAND = 3;
+    public static final int MSG_BATCH = 4;
+    public static final int MSG_RESULT = 5;
+    public static final int MSG_STATE = 6;
+
+    private static final int MSG_DUE = 100;     // a batched command, due now
+    private static final int MSG_CHANGED = 101; // the torch state changed; tell the clients
+    private static final int MSG_QUIT = 102;
+
+    public static final int COMMAND_ON = 0;
+    public static final int COMMAND_OFF = 1;
+    public static final int COMMAND_TOGGLE = 2;
+    public static final int COMMAND_STROBE = 3;
+
+    public static final String KEY_COMMANDS = "commands";   // int[]
+    public static final String KEY_DELAYS = "delays";       // int[], in ms
+
+    private static final String TAG = TorchRemote.class.getSimpleName();
+
+    private static final TorchExecutor.Command[] COMMANDS = {
+        TorchExecutor.Command.ON,
+        TorchExecutor.Command.OFF,
+        TorchExecutor.Command.TOGGLE,
+        TorchExecutor.Command.STROBE,
+    };
+
+    private final TorchExecutor mTorchExecutor;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Messenger mMessenger;
+    // only changed on our thread; read from the main one, too
+    private final List<Messenger> mClients = new CopyOnWriteArrayList<Messenger>();
+
+    // the following are only changed on our thread
+    private volatile int mCommandCount;
+    private volatile int mBatchCount;
+    private volatile int mRejectedCount;
+
+    TorchRemote(TorchExecutor executor) {
+        mTorchExecutor = executor;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper(), this);
+        mMessenger = new Messenger(mHandler);
+    }
+
+    IBinder getBinder() {
+        return mMessenger.getBinder();
+    }
+
+    boolean hasClients() {
+        return !mClients.isEmpty();
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+        case MSG_REGISTER:
+            if (msg.replyTo != null && !mClients.contains(msg.replyTo)) {
+                mClients.add(msg.replyTo);
+                // tell the newcomer where things stand
+                send(msg.replyTo, MSG_STATE, mTorchExecutor.isTorchOn() ? 1 : 0, 1);
+            }
+            return true;
+        case MSG_UNREGISTER:
+            mClients.remove(msg.replyTo);
+            return true;
+        case MSG_COMMAND:
+            if (msg.arg1 < 0 || msg.arg1 >= COMMANDS.length) {
+                reject(msg);
+                return true;
+            }
+            mCommandCount++;
+            mTorchExecutor.submit(COMMANDS[msg.arg1], TorchExecutor.Trigger.REMOTE);
+            if (msg.replyTo != null)
+                send(msg.replyTo, MSG_RESULT, msg.arg2, 1);
+            return true;
+        case MSG_BATCH:
+            scheduleBatch(msg);
+            return true;
+        case MSG_DUE:
+            mTorchExecutor.submit(COMMANDS[msg.arg1], TorchExecutor.Trigger.REMOTE);
+            return true;
+        case MSG_CHANGED:
+            for (Messenger client : mClients) {
+                if (!send(client, MSG_STATE, msg.arg1, msg.arg2))
+                    mClients.remove(client);
+            }
+            return true;
+        case MSG_QUIT:
+            mClients.clear();
+            mThread.quit();
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private void scheduleBatch(Message msg) {
+        Bundle data = msg.peekData();
+        int[] commands = (data != null) ? data.getIntArray(KEY_COMMANDS) : null;
+        int[] delays = (data != null) ? data.getIntArray(KEY_DELAYS) : null;
+        if (commands == null || (delays != null && delays.length != commands.length)) {
+            reject(msg);
+            return;
+        }
+        for (int command : commands) {
+            if (command < 0 || command >= COMMANDS.length) {
+                reject(msg);
+                return;
+            }
+        }
+
+        mBatchCount++;
+        mCommandCount += commands.length;
+        long due = SystemClock.uptimeMillis();
+        for (int i = 0; i < commands.length; i++) {
+            if (delays != null)
+                due += Math.max(0, delays[i]);
+            if (delays == null || due <= SystemClock.uptimeMillis())
+                mTorchExecutor.submit(COMMANDS[commands[i]], TorchExecutor.Trigger.REMOTE);
+            else
+                mHandler.sendMessageAtTime(mHandler.obtainMessage(MSG_DUE, commands[i], 0), due);
+        }
+        if (msg.replyTo != null)
+            send(msg.replyTo, MSG_RESULT, msg.arg2, commands.length);
+    }
+
+    private void reject(Message msg) {
+        Log.w(TAG, "Rejecting malformed message " + msg.what);
+        mRejectedCount++;
+        if (msg.replyTo != null)
+            send(msg.replyTo, MSG_RESULT, msg.arg2, -1);
+    }
+
+    /**
+     * Tell every registered client the torch state changed; may be called
+     * from any thread.
+     */
+    void onTorchStateChanged(boolean success, boolean isTorchOn) {
+        mHandler.obtainMessage(MSG_CHANGED, isTorchOn ? 1 : 0, success ? 1 : 0).sendToTarget();
+    }
+
+    /**
+     * Drop whatever batched commands are still due, and end our thread once
+     * it has handled what is already queued; the service is going away.
+     */
+    void cancel() {
+        mHandler.removeMessages(MSG_DUE);
+        mHandler.sendEmptyMessage(MSG_QUIT);
+    }
+
+    private boolean send(Messenger client, int what, int arg1, int arg2) {
+        try {
+            client.send(Message.obtain(null, what, arg1, arg2));
+            return true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Client gone: " + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "Bound clients: " + mClients.size() + ", commands " + mCommandCount
+                + " (" + mBatchCount + " batch(es)), rejected " + mRejectedCount);
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import android.annotation.TargetApi;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.SystemClock;
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+import android.util.Log;
+
+/**
+ * A Quick Settings tile (API 24+) for the torch, reachable from any screen,
+ * the lock screen included; switching the torch needs nothing unlocked.
+ *
+ * A tap goes the way a widget tap does, straight to the platform torch or
+ * to the service. The tile is an active one: rather than being polled as
+ * the shade opens, it is asked to refresh (see requestUpdate()) whenever
+ * WidgetUpdater pushes a new state to the widgets, and shows that state.
+ */
+@TargetApi(TorchTileService.VERSION_CODES_N)
+public class TorchTileService extends TileService {
+
+    private static final String TAG = TorchTileService.class.getSimpleName();
+
+    /** Callers check against this, as this class does not load on older platforms. */
+    static final int VERSION_CODES_N = 24;
+
+    /**
+     * Have the system bind to the tile so that it shows the current state.
+     */
+    public static void requestUpdate(Context context) {
+        TileService.requestListeningState(context,
+                new ComponentName(context, TorchTileService.class));
+    }
+
+    @Override
+    public void onStartListening() {
+        super.onStartListening();
+        showState(WidgetUpdater.get(this).getState());
+    }
+
+    @Override
+    public void onClick() {
+        super.onClick();
+        Log.v(TAG, "Tile tapped" + (isLocked() ? " on the lock screen" : ""));
+        GalaxyTorchWidgetProvider.toggle(this, SystemClock.uptimeMillis(), TorchExecutor.Trigger.TILE);
+    }
+
+    private void showState(WidgetUpdater.State state) {
+        Tile tile = getQsTile();
+        if (tile == null || state == WidgetUpdater.State.FOCUS)
+            return;     // not ours to draw right now, or about to change anyway
+        tile.setState(state == WidgetUpdater.State.ON ? Tile.STATE_ACTIVE : Tile.STATE_INACTIVE);
+        tile.updateTile();
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.io.PrintWriter;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.os.Trace;
+
+import com.swijaya.galaxytorch.util.EventRing;
+
+/**
+ * Marks the stages of getting the torch switched: as android.os.Trace
+ * sections (API 18+), for systrace/Perfetto, and in an in-memory ring of
+ * the most recent events, for "dumpsys" and bug reports.
+ *
+ * Both are cheap enough to leave in release builds: a Trace section is a
+ * no-op unless tracing is on, and recording an event is an atomic increment
+ * and a few stores. Sections must end on the thread they began on.
+ */
+public class TorchTrace {
+
+    // stages, traced as sections from begin() to end()
+    public static final int ACTIVITY_START = 0;
+    public static final int SERVICE_START = 1;
+    public static final int WIDGET_TAP = 2;
+    public static final int ACQUIRE = 3;
+    public static final int CAMERA_OPEN = 4;
+    public static final int PROBE = 5;
+    public static final int SET_PREVIEW = 6;
+    public static final int START_PREVIEW = 7;
+    public static final int APPLY = 8;
+    public static final int SET_TORCH = 9;
+    public static final int RELEASE = 10;
+
+    // instants, recorded by mark() with an argument
+    public static final int CLICK = 11;
+    public static final int SUBMIT = 12;            // the command's ordinal
+    public static final int DEFERRED = 13;          // waiting for a preview surface
+    public static final int PREVIEW_READY = 14;
+    public static final int TORCH_STATE = 15;       // 1 if on
+    public static final int CAMERA_LOST = 16;       // the camera error
+
+    private static final String[] NAMES = {
+        "GalaxyTorch:activityStart",
+        "GalaxyTorch:serviceStart",
+        "GalaxyTorch:widgetTap",
+        "GalaxyTorch:acquire",
+        "GalaxyTorch:cameraOpen",
+        "GalaxyTorch:probe",
+        "GalaxyTorch:setPreview",
+        "GalaxyTorch:startPreview",
+        "GalaxyTorch:apply",
+        "GalaxyTorch:setTorch",
+        "GalaxyTorch:release",
+        "click",
+        "submit",
+        "deferred",
+        "previewReady",
+        "torchState",
+        "cameraLost",
+    };
+
+    private static final int PHASE_BEGIN = -1;
+    private static final int PHASE_END = -2;
+
+    private static final boolean TRACE_SUPPORTED =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    private static final EventRing sEvents = new EventRing(256);
+
+    private static final EventRing.Formatter sFormatter = new EventRing.Formatter() {
+        @Override
+        public String format(int code, int arg) {
+            String name = (code >= 0 && code < NAMES.length) ? NAMES[code] : String.valueOf(code);
+            if (arg == PHASE_BEGIN)
+                return "begin " + name;
+            if (arg == PHASE_END)
+                return "end   " + name;
+            if (code == SUBMIT && arg >= 0 && arg < TorchExecutor.Command.values().length)
+                return name + " " + TorchExecutor.Command.values()[arg];
+            return name + " " + arg;
+        }
+    };
+
+    private TorchTrace() {
+    }
+
+    @SuppressLint("NewApi")
+    public static void begin(int stage) {
+        if (TRACE_SUPPORTED)
+            Trace.beginSection(NAMES[stage]);
+        sEvents.record(stage, PHASE_BEGIN);
+    }
+
+    @SuppressLint("NewApi")
+    public static void end(int stage) {
+        sEvents.record(stage, PHASE_END);
+        if (TRACE_SUPPORTED)
+            Trace.endSection();
+    }
+
+    public static void mark(int event, int arg) {
+        sEvents.record(event, arg);
+    }
+
+    public static void dump(PrintWriter pw, String prefix) {
+        sEvents.dump(pw, prefix, sFormatter);
+    }
+
+}
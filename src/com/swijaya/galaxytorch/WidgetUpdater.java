@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.util.EnumMap;
+
+import android.annotation.SuppressLint;
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.RemoteViews;
+
+/**
+ * Pushes torch state to our app widgets with as little launcher IPC as we
+ * can get away with.
+ *
+ * The views for every state are built once, the click goes to a single
+ * cached pending intent, and only the button's drawable is sent once the
+ * widgets have their layout (a partial update, API 11+). State changes in
+ * quick succession (say FOCUS, then ON a few milliseconds later) collapse
+ * into one update carrying the last state (see DebouncedState).
+ *
+ * The Quick Settings tile (API 24+) shows the same state; each update
+ * asks the system to let the tile refresh itself from getState(), so that
+ * the two can never disagree.
+ */
+public class WidgetUpdater {
+
+    private static final String TAG = WidgetUpdater.class.getSimpleName();
+
+    private static final long DEBOUNCE_MILLIS = 100;
+
+    public enum State {
+        OFF     (R.drawable.widget_light),
+        ON      (R.drawable.wg_light_on),
+        FOCUS   (R.drawable.wg_light_focus);
+
+        /**
+         * The drawable resource associated with this widget state.
+         */
+        private final int mDrawRes;
+
+        private State(int drawRes) {
+            mDrawRes = drawRes;
+        }
+
+        public int getDrawable() {
+            return mDrawRes;
+        }
+    }
+
+    private static WidgetUpdater sInstance;
+
+    private final Context mContext;
+    private final AppWidgetManager mAppWidgetManager;
+    private final ComponentName mThisWidget;
+    private final Handler mHandler;
+    private final PendingIntent mToggleIntent;
+    private final EnumMap<State, RemoteViews> mFullViews = new EnumMap<State, RemoteViews>(State.class);
+    private final EnumMap<State, RemoteViews> mPartialViews = new EnumMap<State, RemoteViews>(State.class);
+
+    private int[] mWidgetIds;           // cached; refreshed whenever the provider hears of a change
+    private int mUpdateCount;           // how many updates actually went out to the launcher
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private final DebouncedState mState = new DebouncedState(new DebouncedState.Scheduler() {
+        @Override
+        public void schedule(long delayMillis) {
+            mHandler.postDelayed(mFlush, delayMillis);
+        }
+
+        @Override
+        public void cancel() {
+            mHandler.removeCallbacks(mFlush);
+        }
+    }, DEBOUNCE_MILLIS);
+
+    /**
+     * Get the updater; only to be used from the main thread.
+     */
+    public static WidgetUpdater get(Context context) {
+        if (sInstance == null)
+            sInstance = new WidgetUpdater(context.getApplicationContext());
+        return sInstance;
+    }
+
+    private WidgetUpdater(Context context) {
+        mContext = context;
+        mAppWidgetManager = AppWidgetManager.getInstance(context);
+        mThisWidget = new ComponentName(context, GalaxyTorchWidgetProvider.class);
+        mHandler = new Handler(Looper.getMainLooper());
+
+        // create an intent to tell our provider the button was tapped; its
+        // identity never changes, so neither need the views holding it
+        Intent intent = new Intent(context, GalaxyTorchWidgetProvider.class);
+        intent.setAction(GalaxyTorchWidgetProvider.ACTION_TOGGLE);
+        mToggleIntent = PendingIntent.getBroadcast(context, 0, intent, 0);
+    }
+
+    /**
+     * The full layout for the given state, with the click wired up. Only
+     * needed by widgets that have not got their layout yet.
+     */
+    public RemoteViews getFullViews(State state) {
+        RemoteViews views = mFullViews.get(state);
+        if (views == null) {
+            views = new RemoteViews(mContext.getPackageName(), R.layout.widget);
+            views.setImageViewResource(R.id.widgetbutton, state.getDrawable());
+            views.setOnClickPendingIntent(R.id.widgetbutton, mToggleIntent);
+            mFullViews.put(state, views);
+        }
+        return views;
+    }
+
+    private RemoteViews getPartialViews(State state) {
+        RemoteViews views = mPartialViews.get(state);
+        if (views == null) {
+            views = new RemoteViews(mContext.getPackageName(), R.layout.widget);
+            views.setImageViewResource(R.id.widgetbutton, state.getDrawable());
+            mPartialViews.put(state, views);
+        }
+        return views;
+    }
+
+    /**
+     * Give the given widgets their layout, all in one go. Called by the
+     * provider, which also tells us the set of widgets may have changed.
+     */
+    public void setUp(int[] widgetIds) {
+        mWidgetIds = null;
+        mAppWidgetManager.updateAppWidget(widgetIds, getFullViews(mState.getState()));
+        mUpdateCount++;
+    }
+
+    /**
+     * Forget the widget ids we know of; the next update looks them up again.
+     */
+    public void invalidate() {
+        mWidgetIds = null;
+    }
+
+    /**
+     * @return the state the widgets show, or are about to
+     */
+    public State getState() {
+        return mState.getState();
+    }
+
+    /**
+     * Show the given state on all widgets, shortly; a later call within the
+     * debounce window supersedes this one.
+     */
+    public void post(State state) {
+        mState.post(state);
+    }
+
+    @SuppressLint("NewApi")
+    private void flush() {
+        State state = mState.take();
+        if (state == null)
+            return;
+
+        if (Build.VERSION.SDK_INT >= TorchTileService.VERSION_CODES_N)
+            TorchTileService.requestUpdate(mContext);
+        if (mWidgetIds == null)
+            mWidgetIds = mAppWidgetManager.getAppWidgetIds(mThisWidget);
+        if (mWidgetIds.length == 0)
+            return;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            mAppWidgetManager.partiallyUpdateAppWidget(mWidgetIds, getPartialViews(state));
+        } else {
+            mAppWidgetManager.updateAppWidget(mWidgetIds, getFullViews(state));
+        }
+        mUpdateCount++;
+        Log.v(TAG, "Widgets now " + state + "; " + mUpdateCount + " update(s) sent, "
+                + mState.getCoalescedCount() + " coalesced");
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.swijaya.galaxytorch.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.util.Log;
+
+import com.swijaya.galaxytorch.SystemTorch;
+
+/**
+ * Switches the torch through android.hardware.camera2.CameraManager, which
+ * can do so by itself from API 23 on; create() returns null below that.
+ * Torch strength control only came with API 33, newer than the SDK we build
+ * against, so that part is still reached through reflection.
+ */
+@TargetApi(CameraManagerCompat.VERSION_CODES_M)
+public class CameraManagerCompat implements SystemTorch.Manager {
+
+    private static final String TAG = CameraManagerCompat.class.getSimpleName();
+
+    /** The first platform that can switch the torch by itself; callers check against this. */
+    public static final int VERSION_CODES_M = 23;
+
+    private final CameraManager mManager;
+    private final Method mTurnOnTorchWithStrengthLevel;                     // null below API 33
+    private final CameraCharacteristics.Key<Integer> mFlashInfoStrengthMaximumLevel; // null below API 33
+
+    @SuppressWarnings("unchecked")
+    private CameraManagerCompat(CameraManager manager) {
+        mManager = manager;
+
+        Method turnOnWithStrength = null;
+        CameraCharacteristics.Key<Integer> strengthMaximumLevel = null;
+        try {
+            turnOnWithStrength = CameraManager.class.getMethod("turnOnTorchWithStrengthLevel",
+                    String.class, int.class);
+            strengthMaximumLevel = (CameraCharacteristics.Key<Integer>) CameraCharacteristics.class
+                    .getField("FLASH_INFO_STRENGTH_MAXIMUM_LEVEL").get(null);
+        } catch (Exception e) {
+            Log.v(TAG, "No torch strength control on this platform");
+            turnOnWithStrength = null;
+        }
+        mTurnOnTorchWithStrengthLevel = turnOnWithStrength;
+        mFlashInfoStrengthMaximumLevel = strengthMaximumLevel;
+    }
+
+    /**
+     * @return a wrapper around the system's camera manager, or null if this
+     *         device's platform cannot switch the torch by itself
+     */
+    public static CameraManagerCompat create(Context context) {
+        if (android.os.Build.VERSION.SDK_INT < VERSION_CODES_M)
+            return null;
+
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        if (manager == null)
+            return null;
+        return new CameraManagerCompat(manager);
+    }
+
+    @Override
+    public String[] getTorchCameraIds() {
+        List<String> ids = new ArrayList<String>();
+        try {
+            for (String id : mManager.getCameraIdList()) {
+                CameraCharacteristics characteristics = mManager.getCameraCharacteristics(id);
+                if (!Boolean.TRUE.equals(characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE)))
+                    continue;
+                Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+                if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK)
+                    ids.add(0, id);     // back-facing flash units come first
+                else
+                    ids.add(id);
+            }
+        } catch (Exception e) {
+            // CameraAccessException, or whatever a faulty camera service throws
+            Log.e(TAG, "Failed to enumerate cameras: " + e);
+        }
+        return ids.toArray(new String[ids.size()]);
+    }
+
+    @Override
+    public void setTorchMode(String cameraId, boolean on) throws Exception {
+        mManager.setTorchMode(cameraId, on);
+    }
+
+    @Override
+    public int getMaxTorchStrength(String cameraId) {
+        if (mTurnOnTorchWithStrengthLevel == null)
+            return 1;
+        try {
+            Integer level = mManager.getCameraCharacteristics(cameraId).get(mFlashInfoStrengthMaximumLevel);
+            return (level != null) ? level : 1;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to query torch strength levels: " + e);
+            return 1;
+        }
+    }
+
+    @Override
+    public void setTorchStrength(String cameraId, int level) throws Exception {
+        if (mTurnOnTorchWithStrengthLevel == null)
+            throw new IllegalStateException("No torch strength control");
+        try {
+            mTurnOnTorchWithStrengthLevel.invoke(mManager, cameraId, level);
+        } catch (InvocationTargetException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static Exception unwrap(InvocationTargetException e) {
+        if (e.getCause() instanceof Exception)
+            return (Exception) e.getCause();
+        return e;
+    }
+
+}
@@ -25,4 +25,27 @@ public class ClipboardManagerWrapper {
         }
     }
 
+    /**
+     * @return the text on the clipboard (as it is, without copying it), or
+     *         null if there is none or we are not allowed to read it
+     */
+    @SuppressLint("NewApi")
+    @SuppressWarnings("deprecation")
+    public static CharSequence getText(Context context) {
+        int sdk = android.os.Build.VERSION.SDK_INT;
+        if (sdk < android.os.Build.VERSION_CODES.HONEYCOMB) {
+            android.text.ClipboardManager clipboard = (android.text.ClipboardManager) context
+                    .getSystemService(Context.CLIPBOARD_SERVICE);
+            return clipboard.getText();
+        } else {
+            android.content.ClipboardManager clipboard = (android.content.ClipboardManager) context
+                    .getSystemService(Context.CLIPBOARD_SERVICE);
+            // only the app in focus (or the default IME) may read it on 10+
+            android.content.ClipData clip = clipboard.getPrimaryClip();
+            if (clip == null || clip.getItemCount() == 0)
+                return null;
+            return clip.getItemAt(0).coerceToText(context);
+        }
+    }
+
 }
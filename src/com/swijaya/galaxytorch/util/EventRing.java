@@ -0,0 +1,107 @@
+package com.swijaya.galaxytorch.util;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-capacity ring of the most recent events, each an event code and
+ * an argument stamped with System.nanoTime() and the recording thread.
+ *
+ * Recording takes no lock and allocates nothing: writers claim a slot with
+ * a single atomic increment and publish it by its sequence number, so any
+ * number of threads can record at once. Reading is best effort; a slot
+ * being overwritten while it is read is skipped rather than waited for.
+ *
+ * A slot's fields are atomic (volatile) reads and writes, like its sequence
+ * number, so they are totally ordered with it: a reader that finds the
+ * same sequence number before and after copying the fields cannot have
+ * copied any of a later writer's, and Java 7 has no lighter fence to get
+ * that from plain fields.
+ */
+public class EventRing {
+
+    /**
+     * Turns an event back into something readable, at dump time only.
+     */
+    public interface Formatter {
+
+        public String format(int code, int arg);
+
+    }
+
+    private final int mMask;
+    private final AtomicLong mNext = new AtomicLong();
+    private final AtomicLongArray mSequences;   // which event each slot holds; -1 while written
+    private final AtomicLongArray mTimes;
+    private final AtomicLongArray mThreads;
+    private final AtomicLongArray mEvents;      // code in the high half, arg in the low
+
+    /**
+     * @param capacity how many events to keep; rounded up to a power of two
+     */
+    public EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mMask = size - 1;
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            mSequences.set(i, -1);
+        mTimes = new AtomicLongArray(size);
+        mThreads = new AtomicLongArray(size);
+        mEvents = new AtomicLongArray(size);
+    }
+
+    public void record(int code, int arg) {
+        long sequence = mNext.getAndIncrement();
+        int slot = (int) sequence & mMask;
+        mSequences.set(slot, -1);
+        mTimes.set(slot, System.nanoTime());
+        mThreads.set(slot, Thread.currentThread().getId());
+        mEvents.set(slot, ((long) code << 32) | (arg & 0xffffffffL));
+        mSequences.lazySet(slot, sequence);     // publishes the fields above
+    }
+
+    /**
+     * @return how many events were ever recorded
+     */
+    public long getRecordedCount() {
+        return mNext.get();
+    }
+
+    /**
+     * Print the events still in the ring, oldest first, timed relative to
+     * the newest one.
+     */
+    public void dump(PrintWriter pw, String prefix, Formatter formatter) {
+        long next = mNext.get();
+        long first = Math.max(0, next - (mMask + 1));
+        long lastTime = System.nanoTime();
+        for (long i = next - 1; i >= first; i--) {
+            int slot = (int) i & mMask;
+            long time = mTimes.get(slot);
+            if (mSequences.get(slot) == i) {
+                lastTime = time;
+                break;
+            }
+        }
+
+        pw.println(prefix + (next - first) + " of " + next + " event(s):");
+        for (long i = first; i < next; i++) {
+            int slot = (int) i & mMask;
+            if (mSequences.get(slot) != i)
+                continue;
+            long time = mTimes.get(slot);
+            long thread = mThreads.get(slot);
+            long event = mEvents.get(slot);
+            if (mSequences.get(slot) != i)
+                continue;   // overwritten while we read it
+            int code = (int) (event >>> 32);
+            int arg = (int) event;
+
+            pw.println(String.format(Locale.US, "%s  %+10.3fms  tid=%-5d %s",
+                    prefix, (time - lastTime) / 1e6, thread, formatter.format(code, arg)));
+        }
+    }
+
+}
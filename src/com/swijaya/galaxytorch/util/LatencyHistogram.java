@@ -0,0 +1,114 @@
+package com.swijaya.galaxytorch.util;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * A fixed-size histogram of operation latencies, in microseconds.
+ *
+ * Buckets are log-linear: values below 8 us get one bucket each, and every
+ * power of two above that is split into four, so any percentile read back
+ * is within 25% of the truth. Recording allocates nothing; it only takes
+ * the histogram's lock long enough to bump a few counters, so it is safe
+ * to record on one thread and dump on another.
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 39;     // 2^40 us is about 12 days
+    private static final int BUCKETS = LINEAR_BUCKETS
+            + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String mName;
+    private final long[] mCounts = new long[BUCKETS];
+    private long mCount;
+    private long mSum;
+    private long mMax;
+
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    /**
+     * Record an operation that started at the given System.nanoTime().
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public synchronized void record(long micros) {
+        if (micros < 0)
+            micros = 0;
+        mCounts[bucketOf(micros)]++;
+        mCount++;
+        mSum += micros;
+        if (micros > mMax)
+            mMax = micros;
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getMax() {
+        return mMax;
+    }
+
+    /**
+     * @param fraction e.g. 0.99 for the 99th percentile
+     * @return the latency (in us) that many of the recorded operations
+     *         stayed within, or 0 if nothing was recorded
+     */
+    public synchronized long getPercentile(double fraction) {
+        if (mCount == 0)
+            return 0;
+        long rank = (long) Math.ceil(fraction * mCount);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts[i];
+            if (seen >= rank)
+                return Math.min(upperBoundOf(i), mMax);
+        }
+        return mMax;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            mCounts[i] = 0;
+        mCount = mSum = mMax = 0;
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        if (mCount == 0) {
+            pw.println(prefix + mName + ": no samples");
+            return;
+        }
+        pw.println(String.format(Locale.US, "%s%s: n=%d mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms",
+                prefix, mName, mCount, mSum / 1000.0 / mCount,
+                getPercentile(0.5) / 1000.0, getPercentile(0.99) / 1000.0, mMax / 1000.0));
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS)
+            return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 3) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS)
+            return bucket;
+        int exponent = 3 + (bucket - LINEAR_BUCKETS) / SUB_BUCKETS;
+        int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + sub) * width + width - 1;
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.swijaya.galaxytorch.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fixed-size ring of fixed-width records in a memory-mapped file, kept
+ * across process restarts: each record a type, an argument and a value,
+ * stamped with the wall clock time.
+ *
+ * Appending allocates nothing and makes no system call; the kernel writes
+ * the mapped pages back on its own, so records survive the process
+ * crashing (though not the device losing power before the write-back).
+ * Each record carries its sequence number, written last, and a record
+ * whose number is not the one its slot should hold is ignored, so a
+ * record torn by a crash is dropped rather than read back as garbage. The
+ * header's count of records is only a hint; opening the file recovers it
+ * from the records themselves.
+ *
+ * Reading copies the ring out under the append lock, which a writer waits
+ * on for no longer than that copy, and decodes the copy outside of it.
+ */
+public class MappedJournal {
+
+    /**
+     * Takes the records back out, oldest first.
+     */
+    public interface Visitor {
+
+        public void visit(long sequence, long timeMillis, int type, int arg, long value);
+
+    }
+
+    private static final int MAGIC = 0x544a524e;    // "TJRN"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 32;
+
+    // header offsets
+    private static final int MAGIC_AT = 0;
+    private static final int VERSION_AT = 4;
+    private static final int CAPACITY_AT = 8;
+    private static final int NEXT_AT = 16;
+
+    // record offsets
+    private static final int STAMP_AT = 0;          // sequence + 1; 0 while empty or being written
+    private static final int TIME_AT = 8;
+    private static final int TYPE_AT = 16;
+    private static final int ARG_AT = 20;
+    private static final int VALUE_AT = 24;
+
+    private final int mCapacity;
+    private final MappedByteBuffer mBuffer;
+    private long mNext;         // guarded by this
+
+    /**
+     * Map the journal at the given path, creating it (or starting it over,
+     * if it is not a journal of this capacity) as needed.
+     *
+     * @param capacity how many records to keep
+     */
+    public MappedJournal(File file, int capacity) throws IOException {
+        mCapacity = capacity;
+        int size = HEADER_SIZE + capacity * RECORD_SIZE;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            boolean isNew = raf.length() != size;
+            raf.setLength(size);
+            mBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (isNew || mBuffer.getInt(MAGIC_AT) != MAGIC || mBuffer.getInt(VERSION_AT) != VERSION
+                    || mBuffer.getInt(CAPACITY_AT) != capacity) {
+                format();
+            } else {
+                mNext = recover();
+            }
+        } finally {
+            // the mapping stays valid without the file open
+            raf.close();
+        }
+    }
+
+    private void format() {
+        for (int i = 0; i < mBuffer.capacity(); i += 8)
+            mBuffer.putLong(i, 0);
+        mBuffer.putInt(MAGIC_AT, MAGIC);
+        mBuffer.putInt(VERSION_AT, VERSION);
+        mBuffer.putInt(CAPACITY_AT, mCapacity);
+        mNext = 0;
+    }
+
+    private long recover() {
+        long next = mBuffer.getLong(NEXT_AT);
+        for (int slot = 0; slot < mCapacity; slot++)
+            next = Math.max(next, mBuffer.getLong(HEADER_SIZE + slot * RECORD_SIZE + STAMP_AT));
+        return next;
+    }
+
+    public synchronized void append(int type, int arg, long value) {
+        long sequence = mNext++;
+        int at = HEADER_SIZE + (int) (sequence % mCapacity) * RECORD_SIZE;
+        mBuffer.putLong(at + STAMP_AT, 0);
+        mBuffer.putLong(at + TIME_AT, System.currentTimeMillis());
+        mBuffer.putInt(at + TYPE_AT, type);
+        mBuffer.putInt(at + ARG_AT, arg);
+        mBuffer.putLong(at + VALUE_AT, value);
+        mBuffer.putLong(at + STAMP_AT, sequence + 1);
+        mBuffer.putLong(NEXT_AT, mNext);
+    }
+
+    /**
+     * @return how many records were ever appended, this process or before
+     */
+    public synchronized long getAppendCount() {
+        return mNext;
+    }
+
+    /**
+     * Hand every record still in the ring to the visitor, oldest first.
+     */
+    public void read(Visitor visitor) {
+        byte[] copy = new byte[mBuffer.capacity()];
+        long next;
+        synchronized (this) {
+            ByteBuffer source = mBuffer.duplicate();
+            source.position(0);
+            source.get(copy);
+            next = mNext;
+        }
+
+        ByteBuffer records = ByteBuffer.wrap(copy).order(ByteOrder.LITTLE_ENDIAN);
+        for (long sequence = Math.max(0, next - mCapacity); sequence < next; sequence++) {
+            int at = HEADER_SIZE + (int) (sequence % mCapacity) * RECORD_SIZE;
+            if (records.getLong(at + STAMP_AT) != sequence + 1)
+                continue;   // torn by a crash
+            visitor.visit(sequence, records.getLong(at + TIME_AT), records.getInt(at + TYPE_AT),
+                    records.getInt(at + ARG_AT), records.getLong(at + VALUE_AT));
+        }
+    }
+
+}
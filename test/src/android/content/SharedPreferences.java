@@ -0,0 +1,30 @@
+package android.content;
+
+/**
+ * Stands in for android.content.SharedPreferences under the unit tests, so
+ * that an in-memory one can be handed to the tested classes. Only what
+ * they call is here.
+ */
+public interface SharedPreferences {
+
+    public interface Editor {
+
+        public Editor putString(String key, String value);
+
+        public Editor remove(String key);
+
+        public Editor clear();
+
+        public boolean commit();
+
+        public void apply();
+
+    }
+
+    public String getString(String key, String defValue);
+
+    public boolean contains(String key);
+
+    public Editor edit();
+
+}
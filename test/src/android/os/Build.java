@@ -0,0 +1,24 @@
+package android.os;
+
+/**
+ * Stands in for android.os.Build under the unit tests, as an unknown build
+ * of an API level older than any the app checks for, so that the tested
+ * classes take their oldest (and plain Java) paths.
+ */
+public final class Build {
+
+    public static final String FINGERPRINT = "test";
+
+    private Build() {
+    }
+
+    public static final class VERSION {
+
+        public static final int SDK_INT = 0;
+
+        private VERSION() {
+        }
+
+    }
+
+}
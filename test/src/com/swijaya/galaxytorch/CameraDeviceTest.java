@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * How CameraDevice picks a torch, and falls back from one that fails, with
+ * a fake platform torch switch and a fake legacy camera.
+ */
+public class CameraDeviceTest {
+
+    private static final int CAMERA_ID = 0;
+
+    private TorchCapabilities mCapabilities;
+    private FakeCamera mCamera;     // what the opener opens; null if it cannot
+    private int mOpens;
+    private final CameraDevice.CameraOpener mOpener = new CameraDevice.CameraOpener() {
+        @Override
+        public PreviewCamera open() {
+            mOpens++;
+            if (mCamera == null)
+                throw new RuntimeException("Fail to connect to camera service");
+            return mCamera;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mCapabilities = new TorchCapabilities(new FakeSharedPreferences());
+        mCamera = new FakeCamera(TorchCamera.FLASH_MODE_OFF, TorchCamera.FLASH_MODE_TORCH);
+    }
+
+    private CameraDevice newDevice(SystemTorch.Manager manager) {
+        return new CameraDevice(mCapabilities, CAMERA_ID, manager, mOpener, null);
+    }
+
+    @Test
+    public void usesSystemTorchWithoutOpeningCamera() {
+        FakeCameraManager manager = new FakeCameraManager("0");
+        CameraDevice device = newDevice(manager);
+
+        assertTrue(device.acquireCamera());
+        assertFalse(device.requiresPreview());
+        assertTrue(device.toggleCameraLED(true, false));
+
+        assertTrue(manager.isTorchOn());
+        assertEquals(0, mOpens);
+        assertEquals(TorchCapabilities.STRATEGY_SYSTEM, mCapabilities.getStrategy(CAMERA_ID));
+    }
+
+    @Test
+    public void opensCameraWithoutSystemTorch() {
+        CameraDevice device = newDevice(null);
+
+        assertTrue(device.acquireCamera());
+        assertTrue(device.requiresPreview());
+        assertTrue(device.toggleCameraLED(true, false));
+
+        assertTrue(mCamera.isTorchOn());
+        assertEquals(1, mOpens);
+        assertEquals(TorchCapabilities.STRATEGY_CACHED, mCapabilities.getStrategy(CAMERA_ID));
+    }
+
+    @Test
+    public void opensCameraWhenNoCameraHasFlashUnit() {
+        CameraDevice device = newDevice(new FakeCameraManager());
+
+        assertTrue(device.acquireCamera());
+        assertTrue(device.toggleCameraLED(true, false));
+
+        assertTrue(mCamera.isTorchOn());
+        assertEquals(1, mOpens);
+    }
+
+    @Test
+    public void keepsToCameraOnceStoredForThisBuild() {
+        mCapabilities.storeStrategy(CAMERA_ID, TorchCapabilities.STRATEGY_CACHED);
+        FakeCameraManager manager = new FakeCameraManager("0");
+        CameraDevice device = newDevice(manager);
+
+        assertFalse(device.canUseSystemTorch());
+        assertTrue(device.acquireCamera());
+        assertTrue(device.toggleCameraLED(true, false));
+
+        assertTrue(mCamera.isTorchOn());
+        assertEquals(0, manager.getCalls());
+    }
+
+    @Test
+    public void fallsBackToCameraWhenSystemTorchRefuses() {
+        FakeCameraManager manager = new FakeCameraManager("0");
+        CameraDevice device = newDevice(manager);
+        assertTrue(device.acquireCamera());
+        manager.setRefusing(true);
+
+        assertTrue(device.toggleCameraLED(true, false));
+
+        assertFalse(manager.isTorchOn());
+        assertTrue(mCamera.isTorchOn());
+        assertEquals(1, mOpens);
+        assertTrue(device.requiresPreview());
+        assertEquals(TorchCapabilities.STRATEGY_CACHED, mCapabilities.getStrategy(CAMERA_ID));
+
+        // the next acquisition goes straight to the camera
+        device.releaseCamera();
+        assertTrue(mCamera.isReleased());
+        int calls = manager.getCalls();
+        assertTrue(device.acquireCamera());
+        assertTrue(device.toggleCameraLED(true, false));
+        assertEquals(2, mOpens);
+        assertEquals(calls, manager.getCalls());
+    }
+
+    @Test
+    public void failsWithoutTorchMode() {
+        mCamera = new FakeCamera(TorchCamera.FLASH_MODE_OFF);
+        CameraDevice device = newDevice(null);
+
+        assertTrue(device.acquireCamera());
+        assertFalse(device.toggleCameraLED(true, false));
+
+        assertFalse(device.isFlashlightOn());
+        assertEquals(TorchCapabilities.STRATEGY_NONE, mCapabilities.getStrategy(CAMERA_ID));
+    }
+
+    @Test
+    public void failsWhenCameraCannotBeOpened() {
+        mCamera = null;
+        CameraDevice device = newDevice(null);
+
+        assertFalse(device.acquireCamera());
+        assertNull(mCapabilities.getStrategy(CAMERA_ID));
+    }
+
+    @Test
+    public void fallsBackToDefaultTorchWhenCachedTorchFails() {
+        CameraDevice device = newDevice(null);
+        assertTrue(device.acquireCamera());
+        mCamera.failSetParameters(1);
+
+        assertTrue(device.toggleCameraLED(true, false));
+        assertTrue(mCamera.isTorchOn());
+        // once may be a passing failure
+        assertEquals(TorchCapabilities.STRATEGY_CACHED, mCapabilities.getStrategy(CAMERA_ID));
+
+        device.releaseCamera();
+        assertTrue(device.acquireCamera());
+        mCamera.failSetParameters(1);
+
+        assertTrue(device.toggleCameraLED(true, false));
+        assertTrue(mCamera.isTorchOn());
+        assertEquals(TorchCapabilities.STRATEGY_DEFAULT, mCapabilities.getStrategy(CAMERA_ID));
+    }
+
+    @Test
+    public void releaseTurnsTorchOff() {
+        CameraDevice device = newDevice(null);
+        assertTrue(device.acquireCamera());
+        assertTrue(device.toggleCameraLED(true, false));
+
+        device.releaseCamera();
+
+        assertFalse(mCamera.isTorchOn());
+        assertFalse(device.isFlashlightOn());
+        assertTrue(mCamera.isReleased());
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The state the widgets and the Quick Settings tile show, and how posts in
+ * quick succession collapse into one update.
+ */
+public class DebouncedStateTest {
+
+    private static final long DEBOUNCE_MILLIS = 100;
+
+    private boolean mIsScheduled;   // whether a flush is waiting to run
+    private int mSchedules;
+    private DebouncedState mState;
+
+    @Before
+    public void setUp() {
+        mState = new DebouncedState(new DebouncedState.Scheduler() {
+            @Override
+            public void schedule(long delayMillis) {
+                assertEquals(DEBOUNCE_MILLIS, delayMillis);
+                assertFalse("a flush is already scheduled", mIsScheduled);
+                mIsScheduled = true;
+                mSchedules++;
+            }
+
+            @Override
+            public void cancel() {
+                mIsScheduled = false;
+            }
+        }, DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Run the scheduled flush, as the main looper would.
+     */
+    private WidgetUpdater.State flush() {
+        assertTrue("no flush scheduled", mIsScheduled);
+        mIsScheduled = false;
+        return mState.take();
+    }
+
+    @Test
+    public void startsOff() {
+        assertEquals(WidgetUpdater.State.OFF, mState.getState());
+        assertNull(mState.take());
+    }
+
+    @Test
+    public void showsPostedStateRightAway() {
+        mState.post(WidgetUpdater.State.ON);
+
+        // the tile reads this before the widgets are updated
+        assertEquals(WidgetUpdater.State.ON, mState.getState());
+        assertEquals(WidgetUpdater.State.ON, flush());
+        assertEquals(WidgetUpdater.State.ON, mState.getState());
+    }
+
+    @Test
+    public void collapsesBurstIntoLastState() {
+        mState.post(WidgetUpdater.State.FOCUS);
+        mState.post(WidgetUpdater.State.ON);
+
+        assertEquals(WidgetUpdater.State.ON, mState.getState());
+        assertEquals(WidgetUpdater.State.ON, flush());
+        assertFalse(mIsScheduled);
+        assertNull(mState.take());
+        assertEquals(1, mState.getCoalescedCount());
+    }
+
+    @Test
+    public void postsAfterFlushAreNotCoalesced() {
+        mState.post(WidgetUpdater.State.ON);
+        assertEquals(WidgetUpdater.State.ON, flush());
+        mState.post(WidgetUpdater.State.OFF);
+        assertEquals(WidgetUpdater.State.OFF, flush());
+
+        assertEquals(2, mSchedules);
+        assertEquals(0, mState.getCoalescedCount());
+        assertEquals(WidgetUpdater.State.OFF, mState.getState());
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.graphics.SurfaceTexture;
+import android.view.SurfaceHolder;
+
+/**
+ * A legacy camera for the tests. Its parameters hold nothing but the flash
+ * mode, and setParameters() can be made to fail a given number of times,
+ * the way some drivers reject a parameter write now and then.
+ */
+public class FakeCamera implements PreviewCamera {
+
+    private final List<String> mFlashModes;
+    private String mFlashMode = FLASH_MODE_OFF;
+    private int mFailuresLeft;
+    private boolean mIsPreviewStarted;
+    private boolean mIsReleased;
+
+    /**
+     * @param flashModes what the camera supports; none if empty
+     */
+    public FakeCamera(String... flashModes) {
+        mFlashModes = (flashModes.length > 0 ? Arrays.asList(flashModes) : null);
+    }
+
+    /**
+     * @param failures how many of the next setParameters() calls throw
+     */
+    public void failSetParameters(int failures) {
+        mFailuresLeft = failures;
+    }
+
+    public Parameters getParameters() {
+        FakeParameters params = new FakeParameters();
+        params.mFlashMode = mFlashMode;
+        return params;
+    }
+
+    public void setParameters(Parameters params) {
+        if (mFailuresLeft > 0) {
+            mFailuresLeft--;
+            throw new RuntimeException("setParameters failed");
+        }
+        mFlashMode = params.getFlashMode();
+    }
+
+    public void setPreviewDisplay(SurfaceHolder holder) {
+    }
+
+    public void setPreviewTexture(SurfaceTexture texture) {
+    }
+
+    public void startPreview() {
+        mIsPreviewStarted = true;
+    }
+
+    public void stopPreview() {
+        mIsPreviewStarted = false;
+    }
+
+    public void setErrorListener(ErrorListener listener) {
+    }
+
+    public void release() {
+        mIsReleased = true;
+    }
+
+    public boolean isTorchOn() {
+        return FLASH_MODE_TORCH.equals(mFlashMode);
+    }
+
+    public boolean isPreviewStarted() {
+        return mIsPreviewStarted;
+    }
+
+    public boolean isReleased() {
+        return mIsReleased;
+    }
+
+    private class FakeParameters implements Parameters {
+
+        private String mFlashMode;
+
+        public String getFlashMode() {
+            return mFlashMode;
+        }
+
+        public void setFlashMode(String mode) {
+            mFlashMode = mode;
+        }
+
+        public List<String> getSupportedFlashModes() {
+            return (mFlashModes != null ? new ArrayList<String>(mFlashModes) : null);
+        }
+
+    }
+
+}
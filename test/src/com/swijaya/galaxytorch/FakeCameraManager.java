@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+/**
+ * A platform torch switch for the tests: it has whichever flash cameras it
+ * is given, and refuses to switch the torch once told to, the way
+ * CameraManager does when another application holds the camera.
+ */
+public class FakeCameraManager implements SystemTorch.Manager {
+
+    private final String[] mTorchCameraIds;
+    private boolean mIsRefusing;
+    private boolean mIsTorchOn;
+    private int mCalls;
+
+    /**
+     * @param torchCameraIds the cameras with a flash unit; none if empty
+     */
+    public FakeCameraManager(String... torchCameraIds) {
+        mTorchCameraIds = torchCameraIds;
+    }
+
+    /**
+     * @param refusing whether setTorchMode() throws from now on
+     */
+    public void setRefusing(boolean refusing) {
+        mIsRefusing = refusing;
+    }
+
+    public String[] getTorchCameraIds() {
+        return mTorchCameraIds;
+    }
+
+    public void setTorchMode(String cameraId, boolean on) throws Exception {
+        mCalls++;
+        if (mIsRefusing)
+            throw new IllegalStateException("camera " + cameraId + " in use");
+        mIsTorchOn = on;
+    }
+
+    public int getMaxTorchStrength(String cameraId) {
+        return 1;
+    }
+
+    public void setTorchStrength(String cameraId, int level) throws Exception {
+        setTorchMode(cameraId, true);
+    }
+
+    public boolean isTorchOn() {
+        return mIsTorchOn;
+    }
+
+    /**
+     * @return how many times the torch was switched, or refused to be
+     */
+    public int getCalls() {
+        return mCalls;
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.SharedPreferences;
+
+/**
+ * SharedPreferences kept in memory, for the tests. Edits take effect as a
+ * whole once committed (or applied).
+ */
+public class FakeSharedPreferences implements SharedPreferences {
+
+    private final Map<String, String> mValues = new HashMap<String, String>();
+
+    public String getString(String key, String defValue) {
+        String value = mValues.get(key);
+        return (value != null ? value : defValue);
+    }
+
+    public boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    public Editor edit() {
+        return new FakeEditor();
+    }
+
+    private class FakeEditor implements Editor {
+
+        private final Map<String, String> mChanges = new HashMap<String, String>();   // null removes
+        private boolean mIsClearing;
+
+        public Editor putString(String key, String value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        public Editor remove(String key) {
+            mChanges.put(key, null);
+            return this;
+        }
+
+        public Editor clear() {
+            mIsClearing = true;
+            return this;
+        }
+
+        public boolean commit() {
+            // like the real thing: clear first, whatever order it was called in
+            if (mIsClearing)
+                mValues.clear();
+            for (Map.Entry<String, String> change : mChanges.entrySet()) {
+                if (change.getValue() != null)
+                    mValues.put(change.getKey(), change.getValue());
+                else
+                    mValues.remove(change.getKey());
+            }
+            return true;
+        }
+
+        public void apply() {
+            commit();
+        }
+
+    }
+
+}
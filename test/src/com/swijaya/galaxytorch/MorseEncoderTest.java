@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2014 Santoso Wijaya
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.swijaya.galaxytorch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * The timings MorseEncoder hands out: the standard word's length, the gaps
+ * between elements, characters and words, and the speed limits.
+ */
+public class MorseEncoderTest {
+
+    private static final int WPM = 12;     // a 100 ms unit
+
+    /**
+     * @return the timings of one pass over the encoder's text, up to
+     *         (not including) the 0 that ends it
+     */
+    private static int[] send(MorseEncoder encoder) {
+        int[] timings = new int[16];
+        int count = 0;
+        for (int timing = encoder.nextTiming(); timing != 0; timing = encoder.nextTiming()) {
+            if (count == timings.length)
+                timings = Arrays.copyOf(timings, count * 2);
+            timings[count++] = timing;
+        }
+        return Arrays.copyOf(timings, count);
+    }
+
+    private static int[] send(String text) {
+        return send(new MorseEncoder(text, WPM));
+    }
+
+    @Test
+    public void sendsParisInFiftyUnits() {
+        MorseEncoder encoder = new MorseEncoder("PARIS ", 20);
+        assertEquals(60, encoder.getUnitMillis());
+
+        int total = 0;
+        for (int timing : send(encoder))
+            total += timing;
+
+        assertEquals(MorseEncoder.UNITS_PER_WORD, encoder.getUnits());
+        assertEquals(MorseEncoder.UNITS_PER_WORD * 60, total);
+    }
+
+    @Test
+    public void spacesElementsByOneUnit() {
+        // A: dot, element gap, dash, and the word gap the message ends with
+        assertArrayEquals(new int[] { 100, 100, 300, 700 }, send("A"));
+    }
+
+    @Test
+    public void spacesCharactersByThreeUnitsAndWordsBySeven() {
+        assertArrayEquals(new int[] { 100, 300, 100, 700, 100, 700 }, send("EE E"));
+        assertArrayEquals(send("EE E"), send("ee\t\n e"));
+    }
+
+    @Test
+    public void skipsCharactersWithoutCode() {
+        assertArrayEquals(send("SOS"), send("S#O~S"));
+        assertArrayEquals(send("SOS"), send(" \u00e9SOS"));
+        assertArrayEquals(new int[0], send("#~\u00e9"));
+    }
+
+    @Test
+    public void tellsWhetherThereIsAnythingToSend() {
+        assertTrue(MorseEncoder.canEncode("SOS"));
+        assertTrue(MorseEncoder.canEncode("  #s"));
+        assertFalse(MorseEncoder.canEncode(null));
+        assertFalse(MorseEncoder.canEncode(""));
+        assertFalse(MorseEncoder.canEncode(" \t#~\u00e9"));
+    }
+
+    @Test
+    public void sendsAgainAfterRewind() {
+        MorseEncoder encoder = new MorseEncoder("SOS", WPM);
+        int[] first = send(encoder);
+        long units = encoder.getUnits();
+        assertEquals(0, encoder.nextTiming());
+
+        encoder.rewind();
+
+        assertArrayEquals(first, send(encoder));
+        assertEquals(2 * units, encoder.getUnits());
+    }
+
+    @Test
+    public void clampsSpeed() {
+        MorseEncoder fast = new MorseEncoder("E", 100);
+        assertEquals(1200 / MorseEncoder.MAX_WPM, fast.getUnitMillis());
+        assertEquals(MorseEncoder.MAX_WPM, fast.getWpm(), 0);
+
+        MorseEncoder slow = new MorseEncoder("E", 1);
+        assertEquals(1200 / MorseEncoder.MIN_WPM, slow.getUnitMillis());
+        assertEquals(MorseEncoder.MIN_WPM, slow.getWpm(), 0);
+    }
+
+}